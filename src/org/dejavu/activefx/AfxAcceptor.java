@@ -11,6 +11,7 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLContext;
 
 /**
  * Object-oriented analog to a server port listening to connection request from
@@ -19,6 +20,26 @@ import java.nio.channels.SocketChannel;
  */
 public class AfxAcceptor {
 
+	/**
+	 * Creates the event handlers of the connections the acceptor creates for
+	 * accepted channels, see setConnectionHandlerFactory().
+	 */
+	public interface ConnectionHandlerFactory {
+
+		/**
+		 * Creates the handler of the connection-level events of a new
+		 * connection: openCompleted() (just before the connection is reported
+		 * via AfxEventHandler.acceptCompleted(AfxConnection)), openFailed()
+		 * and closed(). Invoked by the reactor thread, must not block. Options
+		 * such as the connect timeout, which bounds the TLS handshake, may be
+		 * set on the connection from here.
+		 *
+		 * @param newConnection The new connection, not yet open.
+		 * @return The handler for the new connection, null for none.
+		 */
+		AfxEventHandler newHandler(AfxConnection newConnection);
+	}
+
 	/**
 	 * Creates an acceptor associated with a particular Active FX domain.
 	 *
@@ -42,13 +63,112 @@ public class AfxAcceptor {
 	 * @throws java.io.IOException Failed to open listening socket
 	 */
 	public synchronized void open(String ipAddr, int ipPort) throws IOException {
+		open(ipAddr, ipPort, 0);
+	}
+
+	/**
+	 * Opens an acceptor, binding it to a local server port. This must be done
+	 * before invoking accept().
+	 *
+	 * @param ipAddr The local network interface to bind to, typically
+	 * 127.0.0.1.
+	 * @param ipPort The server port to bind to.
+	 * @param backlog The maximum number of pending connections queued up by
+	 * the OS for this acceptor. Zero or less means the system default, which is
+	 * usually too small for absorbing reconnect storms.
+	 * @throws java.io.IOException Failed to open listening socket
+	 */
+	public synchronized void open(String ipAddr, int ipPort, int backlog) throws IOException {
 		if (currentState == State.ACCEPTOR_STATE_CLOSED) {
 			channel.configureBlocking(false);
-			channel.socket().bind(new InetSocketAddress(ipPort));  // EB: changed from: ( ipAddr, ipPort) since it is local anyway
+			channel.socket().bind(new InetSocketAddress(ipPort), backlog);  // EB: changed from: ( ipAddr, ipPort) since it is local anyway
 			currentState = State.ACCEPTOR_STATE_IDLE;
 		}
 	}
 
+	/**
+	 * Specifies the maximum number of connections accepted per accept event
+	 * from the reactor. Pending connections are drained until either none is
+	 * left or this many had been accepted, before returning to the reactor.
+	 *
+	 * @param value The new maximum, at least one.
+	 * @return This object.
+	 */
+	public synchronized AfxAcceptor setMaxAcceptsPerEvent(int value) {
+		maxAcceptsPerEvent = value > 0 ? value : 1;
+		return this;
+	}
+
+	/**
+	 * Specifies the domain to which accepted channels are handed. When set,
+	 * each accepted channel is wrapped into a new TCP connection created
+	 * against the given domain, and thus assigned to one of that domain's
+	 * reactors rather than being left to the client. The connection is
+	 * reported via {@link AfxEventHandler#acceptCompleted(AfxConnection)} once
+	 * open, instead of the raw channel being reported via
+	 * {@link AfxEventHandler#acceptCompleted(SelectableChannel)}. Use
+	 * setConnectionHandlerFactory() to learn when such connections close.
+	 *
+	 * @param connectionDomain The domain whose reactors are to serve accepted
+	 * connections, may be this acceptor's own domain. Null to report raw
+	 * channels (default).
+	 * @return This object.
+	 */
+	public synchronized AfxAcceptor setConnectionDomain(AfxDomain connectionDomain) {
+		this.connectionDomain = connectionDomain;
+		return this;
+	}
+
+	/**
+	 * Specifies the factory of the event handlers of the connections created
+	 * for accepted channels (see setConnectionDomain() and setSslContext()),
+	 * through which the application learns of each connection being closed,
+	 * whichever side closed it. Without a factory the connection-level events
+	 * are merely logged.
+	 *
+	 * @param handlerFactory The factory, null for none (default).
+	 * @return This object.
+	 */
+	public synchronized AfxAcceptor setConnectionHandlerFactory(ConnectionHandlerFactory handlerFactory) {
+		this.handlerFactory = handlerFactory;
+		return this;
+	}
+
+	/**
+	 * Specifies that accepted channels are TLS connections, served by the
+	 * server side of AfxConnectionTLS. Accepted channels are then always
+	 * handed to new connections, created against the connection domain if set,
+	 * otherwise against this acceptor's own domain.
+	 *
+	 * @param sslContext The SSL context to create the engines from, e.g. that
+	 * of a DjvSocketSslFactory, holding the server key. Null for plaintext
+	 * connections (default).
+	 * @return This object.
+	 */
+	public synchronized AfxAcceptor setSslContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+		return this;
+	}
+
+	/**
+	 * Configures the server session cache of the SSL context set with
+	 * setSslContext(), so that returning clients may resume their sessions.
+	 *
+	 * @param cacheSize The maximum number of sessions cached, zero for no
+	 * limit.
+	 * @param timeoutSeconds How long a session may be resumed, zero for no
+	 * limit.
+	 * @return This object.
+	 * @throws IllegalStateException No SSL context set.
+	 */
+	public synchronized AfxAcceptor setSessionCache(int cacheSize, int timeoutSeconds) {
+		if (null == sslContext) {
+			throw new IllegalStateException("No SSL context set on " + this);
+		}
+		AfxConnectionTLS.configureServerSessionCache(sslContext, cacheSize, timeoutSeconds);
+		return this;
+	}
+
 	/**
 	 * Closes an acceptor, releasing all resources acquired in open().
 	 */
@@ -110,6 +230,10 @@ public class AfxAcceptor {
 	 * Simple state machine.
 	 */
 	private State currentState = State.ACCEPTOR_STATE_CLOSED;
+	private int maxAcceptsPerEvent = 64;
+	private AfxDomain connectionDomain;
+	private ConnectionHandlerFactory handlerFactory;
+	private SSLContext sslContext;
 	private final AcceptEventHandler acceptEventHandler = new AcceptEventHandler();
 
 	/**
@@ -146,26 +270,132 @@ public class AfxAcceptor {
 
 		@Override
 		public void onAccept() {
+			int maxAccepts;
+			AfxDomain targetDomain;
+			SSLContext tlsContext;
+			ConnectionHandlerFactory factory;
 			synchronized (AfxAcceptor.this) {
 				// Set the state before executing the callback
 				currentState = State.ACCEPTOR_STATE_IDLE;
+				maxAccepts = maxAcceptsPerEvent;
+				tlsContext = sslContext;
+				factory = handlerFactory;
+				targetDomain = ((null == connectionDomain) && (null != tlsContext)) ? domain : connectionDomain;
 			}
 
-			try {
-				// Only accept TCP connection for now
-				SocketChannel newChannel = channel.accept();
-				// Why?
-				//domain.deregisterHandler(this, java.nio.channels.SelectionKey.OP_ACCEPT);
-				if (null != newChannel) {
+			// Drain the pending connections, up to the configured maximum
+			for (int i = 0; i < maxAccepts; ++i) {
+				SocketChannel newChannel = null;
+				try {
+					// Only accept TCP connection for now
+					newChannel = channel.accept();
+					// Why?
+					//domain.deregisterHandler(this, java.nio.channels.SelectionKey.OP_ACCEPT);
+					if (null == newChannel) {
+						// Nothing left pending
+						break;
+					}
+
 					newChannel.configureBlocking(false);
 					Socket sock = newChannel.socket();
 					sock.setKeepAlive(true);
-					if (null != eventHandler) {
+					if (null != targetDomain) {
+						distribute(newChannel, targetDomain, tlsContext, factory);
+					} else if (null != eventHandler) {
 						eventHandler.acceptCompleted(newChannel);
 					}
+				} catch (InterruptedException e) {
+					closeAccepted(newChannel);
+					break;
+				} catch (RuntimeException | IOException e) {
+					DjvSystem.logError(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+					if (null == newChannel) {
+						// The acceptor itself failed, nothing more to drain
+						break;
+					}
+
+					// Only this peer is lost, carry on with the others pending
+					closeAccepted(newChannel);
+				}
+			}
+		}
+
+		/**
+		 * Closes an accepted channel that could not be handed over.
+		 *
+		 * @param newChannel The accepted channel, null if none.
+		 */
+		private void closeAccepted(SocketChannel newChannel) {
+			if (null != newChannel) {
+				try {
+					newChannel.close();
+				} catch (IOException e) {
+					DjvSystem.logError(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+				}
+			}
+		}
+
+		/**
+		 * Hands an accepted channel to a new connection in the target domain.
+		 *
+		 * @param newChannel The accepted channel.
+		 * @param targetDomain The domain to serve the new connection.
+		 * @param tlsContext The SSL context for a TLS connection, null for a
+		 * plaintext one.
+		 * @param factory Creates the application's handler for the new
+		 * connection, null for none.
+		 * @throws InterruptedException User interruption
+		 */
+		private void distribute(SocketChannel newChannel, AfxDomain targetDomain, SSLContext tlsContext, ConnectionHandlerFactory factory) throws InterruptedException {
+			AfxConnectionTcp newConnection = (null == tlsContext) ? new AfxConnectionTcp(targetDomain)
+				: new AfxConnectionTLS(targetDomain, tlsContext, false);
+			AfxEventHandler connectionHandler;
+			try {
+				connectionHandler = (null != factory) ? factory.newHandler(newConnection) : null;
+			} catch (RuntimeException e) {
+				// The channel is closed by the caller
+				newConnection.discard();
+				throw e;
+			}
+			boolean started = newConnection.connect(newChannel, new AfxEventHandler() {
+				@Override
+				public void openCompleted() {
+					if (null != connectionHandler) {
+						connectionHandler.openCompleted();
+					}
+					if (null != eventHandler) {
+						eventHandler.acceptCompleted(newConnection);
+					}
+				}
+
+				@Override
+				public void openFailed(String theCause) {
+					DjvSystem.logWarning(Category.DESIGN, "Failed to open accepted " + newConnection + " due to " + theCause);
+					newConnection.close();
+					if (null != connectionHandler) {
+						connectionHandler.openFailed(theCause);
+					}
+				}
+
+				@Override
+				public void closed() {
+					if (null != connectionHandler) {
+						connectionHandler.closed();
+					} else {
+						AfxEventHandler.super.closed();
+					}
+				}
+
+				@Override
+				public String toString() {
+					return "AcceptedConnection:{connection:" + newConnection + "}";
 				}
-			} catch (RuntimeException | IOException e) {
-				DjvSystem.logError(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+			});
+			if (!started) {
+				// Neither completion nor failure will follow
+				DjvSystem.logWarning(Category.DESIGN, "Domain rejected accepted " + newConnection);
+				closeAccepted(newChannel);
+				newConnection.discard();
 			}
 		}
 
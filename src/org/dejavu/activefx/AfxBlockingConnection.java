@@ -0,0 +1,301 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking facade over an Active FX connection. Each open/read/write call
+ * issues the corresponding request and parks the calling thread until the
+ * connection reports its completion, while the I/O itself is still carried out
+ * by the reactors of the connection's domain.
+ * <p>
+ * Waiting is done with java.util.concurrent locks rather than object monitors,
+ * so that on runtimes with virtual threads a parked caller releases its
+ * carrier thread; a service may then run one virtual thread per connection
+ * without an OS thread per socket. One read and one write may be outstanding
+ * at any one time, i.e. one thread may read while another writes.
+ * <p>
+ * A request that does not complete within its timeout cannot be withdrawn from
+ * the connection, hence the connection is closed.
+ */
+public class AfxBlockingConnection {
+
+	/**
+	 * Creates a blocking facade.
+	 *
+	 * @param connection The connection to operate on, either not yet open, or
+	 * already open (e.g. as accepted by an AfxAcceptor), in which case open()
+	 * must not be invoked.
+	 */
+	public AfxBlockingConnection(AfxConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Opens the connection to a server, waiting for the open to complete.
+	 *
+	 * @param remoteIpAddr IP address or host name of the server
+	 * @param remoteIpPort Server port.
+	 * @param timeoutMs How long to wait for the open to complete, zero or
+	 * negative to wait indefinitely.
+	 * @throws AfxException The open failed, or timed out.
+	 * @throws InterruptedException User interruption
+	 */
+	public void open(String remoteIpAddr, int remoteIpPort, long timeoutMs) throws AfxException, InterruptedException {
+		openOperation.execute(op -> connection.open(remoteIpAddr, remoteIpPort, op), timeoutMs);
+	}
+
+	/**
+	 * Reads a message from the connection, waiting until the buffer is filled.
+	 *
+	 * @param buffer The buffer with which to read the message into, as much as
+	 * it has remaining.
+	 * @param timeoutMs How long to wait for the read to complete, zero or
+	 * negative to wait indefinitely.
+	 * @return The given buffer, flipped to expose the message read in.
+	 * @throws AfxException The read failed, or timed out.
+	 * @throws InterruptedException User interruption
+	 */
+	public ByteBuffer read(ByteBuffer buffer, long timeoutMs) throws AfxException, InterruptedException {
+		readOperation.execute(op -> isOpen() && connection.read(buffer, op), timeoutMs);
+		return buffer;
+	}
+
+	/**
+	 * Writes a message to the connection, waiting until it has been written
+	 * entirely.
+	 *
+	 * @param buffer The buffer containing the message to write.
+	 * @param timeoutMs How long to wait for the write to complete, zero or
+	 * negative to wait indefinitely.
+	 * @throws AfxException The write failed, or timed out.
+	 * @throws InterruptedException User interruption
+	 */
+	public void write(ByteBuffer buffer, long timeoutMs) throws AfxException, InterruptedException {
+		writeOperation.execute(op -> isOpen() && connection.write(buffer, op), timeoutMs);
+	}
+
+	/**
+	 * Closes the connection. Any thread waiting on this facade fails with an
+	 * AfxException.
+	 */
+	public void close() {
+		connection.close();
+		openOperation.finished("closed");
+		readOperation.finished("closed");
+		writeOperation.finished("closed");
+	}
+
+	/**
+	 * Retrieves the underlying connection.
+	 *
+	 * @return The connection.
+	 */
+	public AfxConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Determines whether the connection is open, i.e. requests to read or
+	 * write can be issued.
+	 *
+	 * @return True if open, false otherwise.
+	 */
+	public boolean isOpen() {
+		return AfxConnectionFsmDomain.isOpenState(connection.getCurrentState());
+	}
+
+	@Override
+	public String toString() {
+		return "AfxBlockingConnection:{" + connection + "}";
+	}
+
+	/**
+	 * Issues a request to the connection.
+	 */
+	private interface Request {
+
+		/**
+		 * @param operation The event handler to receive the completion.
+		 * @return True if the request had been initiated, false otherwise.
+		 * @throws InterruptedException User interruption
+		 */
+		boolean issue(Operation operation) throws InterruptedException;
+	}
+
+	/**
+	 * An outstanding request, and the event handler receiving its completion.
+	 * The completion is delivered by an FSM or reactor thread, and wakes up the
+	 * thread waiting in await().
+	 */
+	private class Operation implements AfxEventHandler {
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Issues a request and waits for it to complete.
+		 *
+		 * @param request The request to issue, with this as event handler.
+		 * @param timeoutMs How long to wait, zero or negative to wait
+		 * indefinitely.
+		 * @throws AfxException A request of the same kind is still outstanding,
+		 * or the request was rejected, failed, or timed out, in which case the
+		 * connection is closed.
+		 * @throws InterruptedException User interruption, the connection is
+		 * closed unless the request was not issued.
+		 */
+		void execute(Request request, long timeoutMs) throws AfxException, InterruptedException {
+			start();
+			boolean issued = false;
+			try {
+				issued = request.issue(this);
+			} finally {
+				if (!issued) {
+					lock.lock();
+					try {
+						pending = false;
+					} finally {
+						lock.unlock();
+					}
+				}
+			}
+			if (!issued) {
+				throw new AfxException(name + " rejected on " + connection);
+			}
+			await(timeoutMs);
+		}
+
+		/**
+		 * Marks the start of a new request.
+		 *
+		 * @throws AfxException A request of the same kind is still outstanding.
+		 */
+		private void start() throws AfxException {
+			lock.lock();
+			try {
+				if (pending) {
+					throw new AfxException(name + " already in progress on " + connection);
+				}
+				pending = true;
+				done = false;
+				cause = null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits for the outstanding request to complete.
+		 */
+		private void await(long timeoutMs) throws AfxException, InterruptedException {
+			boolean abandoned = true;
+			lock.lock();
+			try {
+				long remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+				while (!done) {
+					if (0 >= timeoutMs) {
+						completion.await();
+					} else if (0 >= remainingNs) {
+						break;
+					} else {
+						remainingNs = completion.awaitNanos(remainingNs);
+					}
+				}
+				abandoned = !done;
+				if (!abandoned) {
+					if (null != cause) {
+						throw new AfxException(name + " " + cause + " on " + connection);
+					}
+					return;
+				}
+			} finally {
+				pending = false;
+				lock.unlock();
+
+				if (abandoned) {
+					// The request cannot be withdrawn from the connection
+					close();
+				}
+			}
+			throw new AfxException(name + " timed out after " + timeoutMs + " ms on " + connection);
+		}
+
+		/**
+		 * Completes the outstanding request, if any.
+		 *
+		 * @param failure The cause of failure, null if the request succeeded.
+		 */
+		void finished(String failure) {
+			lock.lock();
+			try {
+				if (pending && !done) {
+					done = true;
+					cause = failure;
+					completion.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void openCompleted() {
+			finished(null);
+		}
+
+		@Override
+		public void openFailed(String theCause) {
+			finished("failed: " + theCause);
+		}
+
+		@Override
+		public void closed() {
+			finished("closed");
+		}
+
+		@Override
+		public void readCompleted(ByteBuffer returnedBuffer) {
+			finished(null);
+		}
+
+		@Override
+		public void readFailed() {
+			finished("failed");
+		}
+
+		@Override
+		public void writeCompleted() {
+			finished(null);
+		}
+
+		@Override
+		public void writeFailed() {
+			finished("failed");
+		}
+
+		@Override
+		public String toString() {
+			return name + " of " + AfxBlockingConnection.this;
+		}
+
+		private final String name;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition completion = lock.newCondition();
+
+		/**
+		 * State of the request, guarded by the lock
+		 */
+		private boolean pending;
+		private boolean done;
+		private String cause;
+	}
+
+	private final AfxConnection connection;
+	private final Operation openOperation = new Operation("Open");
+	private final Operation readOperation = new Operation("Read");
+	private final Operation writeOperation = new Operation("Write");
+}
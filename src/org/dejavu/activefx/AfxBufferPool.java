@@ -0,0 +1,447 @@
+package org.dejavu.activefx;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.dejavu.util.DjvExceptionUtil;
+import org.dejavu.util.DjvLogMsg.Category;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * Pool of direct byte buffers, in power-of-two size classes. The reactor and
+ * FSM threads each keep a small cache of buffers per size class, backed by a
+ * shared pool per size class, so that the buffers they acquire and release
+ * do not contend with other threads. Other threads, e.g. application threads,
+ * acquire from and release to the shared pools directly, as buffers cached
+ * by short-lived threads would be stranded. Requests larger than the largest
+ * size class are served with unpooled buffers.
+ * <p>
+ * A buffer must be released exactly once, and must not be used after being
+ * released. Optional leak detection reports the buffers garbage collected
+ * without having been released, along with where they were acquired.
+ */
+public class AfxBufferPool {
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param maxBufferSize The size of the largest size class, rounded up to a
+	 * power of two. Larger requests are not pooled.
+	 * @param maxPooledPerClass The maximum number of buffers kept in the shared
+	 * pool of each size class, excess released buffers are simply dropped.
+	 */
+	public AfxBufferPool(int maxBufferSize, int maxPooledPerClass) {
+		int maxClass = classOf(Math.max(maxBufferSize, MIN_BUFFER_SIZE));
+		this.maxPooledPerClass = maxPooledPerClass;
+		sharedPools = new SizeClass[maxClass + 1];
+		for (int i = 0; i < sharedPools.length; ++i) {
+			sharedPools[i] = new SizeClass(MIN_BUFFER_SIZE << i);
+		}
+		threadCaches = ThreadLocal.withInitial(() -> {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[maxClass + 1];
+			for (int i = 0; i < caches.length; ++i) {
+				caches[i] = new ArrayDeque<>();
+			}
+			return caches;
+		});
+	}
+
+	/**
+	 * Retrieves the default pool, shared by all domains unless configured
+	 * otherwise. Its size classes go from 512 bytes to 1 MB.
+	 *
+	 * @return The default pool.
+	 */
+	public static AfxBufferPool getDefault() {
+		return DEFAULT_POOL;
+	}
+
+	/**
+	 * Lets the calling thread cache buffers. Meant for the long-lived threads
+	 * that acquire and release most buffers, i.e. the reactor and FSM dispatch
+	 * threads, until they stop.
+	 */
+	static void enableThreadCache() {
+		CACHING_THREAD.set(Boolean.TRUE);
+	}
+
+	/**
+	 * Acquires a direct buffer.
+	 *
+	 * @param minCapacity The minimum capacity required.
+	 * @return A cleared buffer whose limit is the requested capacity. Its
+	 * actual capacity may be larger.
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		acquireCount.increment();
+		outstanding.incrementAndGet();
+		pollLeaks();
+
+		ByteBuffer retValue = null;
+		int sizeClass = classOf(minCapacity);
+		if (sizeClass < sharedPools.length) {
+			SizeClass shared = sharedPools[sizeClass];
+			ArrayDeque<ByteBuffer> cache = threadCache(sizeClass);
+			if (((null == cache) || (null == (retValue = cache.pollFirst()))) && (null != (retValue = shared.buffers.poll()))) {
+				shared.sharedCount.decrementAndGet();
+			}
+			if (null != retValue) {
+				hitCount.increment();
+				shared.pooled.decrementAndGet();
+			} else {
+				allocateCount.increment();
+				retValue = ByteBuffer.allocateDirect(shared.bufferSize);
+			}
+		} else {
+			unpooledCount.increment();
+			retValue = ByteBuffer.allocateDirect(minCapacity);
+		}
+
+		retValue.clear();
+		retValue.limit(minCapacity);
+		if (leakDetection) {
+			track(retValue);
+		}
+		return retValue;
+	}
+
+	/**
+	 * Releases a buffer acquired from this pool, making it available for
+	 * reuse.
+	 *
+	 * @param buffer The buffer to release, null is ignored.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (null == buffer) {
+			return;
+		}
+
+		if (leakDetection && !untrack(buffer) && !releaseUntracked()) {
+			DjvSystem.logWarning(Category.DESIGN, "Releasing buffer not acquired from " + this + " or released twice at " + DjvExceptionUtil.getCompressedTrace());
+			return;
+		}
+
+		releaseCount.increment();
+		outstanding.decrementAndGet();
+		pollLeaks();
+
+		int sizeClass = classOf(buffer.capacity());
+		if ((!buffer.isDirect()) || (sizeClass >= sharedPools.length) || (sharedPools[sizeClass].bufferSize != buffer.capacity())) {
+			// Unpooled, leave it to the garbage collector
+			return;
+		}
+
+		SizeClass shared = sharedPools[sizeClass];
+		ArrayDeque<ByteBuffer> cache = threadCache(sizeClass);
+		if ((null != cache) && (cache.size() < threadCacheSize(shared.bufferSize))) {
+			cache.addFirst(buffer);
+		} else if (shared.sharedCount.incrementAndGet() <= maxPooledPerClass) {
+			shared.buffers.offer(buffer);
+		} else {
+			// Pool full, leave it to the garbage collector
+			shared.sharedCount.decrementAndGet();
+			return;
+		}
+		shared.pooled.incrementAndGet();
+	}
+
+	/**
+	 * Specifies whether leaks are to be detected. Leaks are buffers garbage
+	 * collected without having been released, they are reported (with where
+	 * they were acquired) as they are discovered. Detection also catches
+	 * buffers released twice, once the buffers already outstanding when it
+	 * was switched on, which are not tracked, have all been released. Costly,
+	 * meant for diagnostics.
+	 *
+	 * @param value True to detect leaks, false otherwise (default).
+	 * @return This object.
+	 */
+	public AfxBufferPool setLeakDetection(boolean value) {
+		synchronized (leases) {
+			if (value && !leakDetection) {
+				untrackedOutstanding = Math.max(0, outstanding.get());
+			}
+			leakDetection = value;
+			if (!value) {
+				leases.clear();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Retrieves the number of acquire requests served.
+	 *
+	 * @return The number of acquisitions.
+	 */
+	public long getAcquireCount() {
+		return acquireCount.sum();
+	}
+
+	/**
+	 * Retrieves the number of buffers released.
+	 *
+	 * @return The number of releases.
+	 */
+	public long getReleaseCount() {
+		return releaseCount.sum();
+	}
+
+	/**
+	 * Retrieves the number of acquire requests served with pooled buffers.
+	 *
+	 * @return The number of pool hits.
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Retrieves the number of new pooled-size buffers allocated, i.e. the
+	 * number of pool misses.
+	 *
+	 * @return The number of allocations.
+	 */
+	public long getAllocateCount() {
+		return allocateCount.sum();
+	}
+
+	/**
+	 * Retrieves the number of acquire requests too large to be pooled.
+	 *
+	 * @return The number of unpooled allocations.
+	 */
+	public long getUnpooledCount() {
+		return unpooledCount.sum();
+	}
+
+	/**
+	 * Retrieves the number of leaks detected.
+	 *
+	 * @return The number of buffers garbage collected without being released.
+	 */
+	public long getLeakCount() {
+		return leakCount.sum();
+	}
+
+	/**
+	 * Retrieves the number of buffers acquired but not yet released.
+	 *
+	 * @return The number of outstanding buffers.
+	 */
+	public int getOutstandingCount() {
+		return outstanding.get();
+	}
+
+	/**
+	 * Retrieves the number of bytes held in the pool, available for reuse.
+	 *
+	 * @return The number of pooled bytes.
+	 */
+	public long getPooledBytes() {
+		long retValue = 0;
+		for (SizeClass sizeClass : sharedPools) {
+			retValue += (long) sizeClass.pooled.get() * sizeClass.bufferSize;
+		}
+		return retValue;
+	}
+
+	@Override
+	public String toString() {
+		return "{acquired:" + getAcquireCount() + ", released:" + getReleaseCount() + ", hits:" + getHitCount()
+			+ ", allocated:" + getAllocateCount() + ", unpooled:" + getUnpooledCount() + ", outstanding:" + getOutstandingCount()
+			+ ", leaks:" + getLeakCount() + ", pooledBytes:" + getPooledBytes() + "}";
+	}
+
+	/**
+	 * Determines the size class of a buffer size.
+	 *
+	 * @param size The buffer size.
+	 * @return The index of the smallest size class fitting the given size.
+	 */
+	private static int classOf(int size) {
+		if (size <= MIN_BUFFER_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_BUFFER_SHIFT;
+	}
+
+	/**
+	 * Retrieves the cache of the calling thread for a size class.
+	 *
+	 * @param sizeClass The size class.
+	 * @return The cache, null if the thread does not cache buffers.
+	 */
+	private ArrayDeque<ByteBuffer> threadCache(int sizeClass) {
+		return (null != CACHING_THREAD.get()) ? threadCaches.get()[sizeClass] : null;
+	}
+
+	/**
+	 * Determines how many buffers of a size class each thread may cache.
+	 *
+	 * @param bufferSize The size of the buffers in the class.
+	 * @return The number of buffers, at least one.
+	 */
+	private static int threadCacheSize(int bufferSize) {
+		return Math.max(1, Math.min(MAX_THREAD_CACHE_COUNT, MAX_THREAD_CACHE_BYTES / bufferSize));
+	}
+
+	private void track(ByteBuffer buffer) {
+		Lease lease = new Lease(buffer, leakQueue);
+		synchronized (leases) {
+			lease.next = leases.put(lease.key, lease);
+		}
+	}
+
+	/**
+	 * Stops tracking a released buffer.
+	 *
+	 * @param buffer The buffer released.
+	 * @return True if the buffer was being tracked, false otherwise.
+	 */
+	private boolean untrack(ByteBuffer buffer) {
+		int key = System.identityHashCode(buffer);
+		synchronized (leases) {
+			Lease prev = null;
+			for (Lease lease = leases.get(key); null != lease; prev = lease, lease = lease.next) {
+				if (lease.get() == buffer) {
+					unlink(prev, lease);
+					lease.clear();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Accounts for the release of a buffer that is not tracked, which is
+	 * legitimate as long as buffers acquired before leak detection was
+	 * switched on are outstanding.
+	 *
+	 * @return True if accounted for, false if the buffer cannot be one of
+	 * those, i.e. it was released twice or not acquired from this pool.
+	 */
+	private boolean releaseUntracked() {
+		synchronized (leases) {
+			if (0 < untrackedOutstanding) {
+				--untrackedOutstanding;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reports the leases whose buffers had been garbage collected.
+	 */
+	private void pollLeaks() {
+		Lease leaked;
+		while (null != (leaked = (Lease) leakQueue.poll())) {
+			synchronized (leases) {
+				Lease prev = null;
+				for (Lease lease = leases.get(leaked.key); null != lease; prev = lease, lease = lease.next) {
+					if (lease == leaked) {
+						unlink(prev, lease);
+						break;
+					}
+				}
+			}
+			leakCount.increment();
+			outstanding.decrementAndGet();
+			DjvSystem.logWarning(Category.DESIGN, "Buffer leaked from " + this + ", acquired at " + DjvExceptionUtil.simpleTrace(leaked.origin));
+		}
+	}
+
+	/**
+	 * Unlinks a lease from its collision chain. Must hold the lock on leases.
+	 */
+	private void unlink(Lease prev, Lease lease) {
+		if (null != prev) {
+			prev.next = lease.next;
+		} else if (null != lease.next) {
+			leases.put(lease.key, lease.next);
+		} else {
+			leases.remove(lease.key);
+		}
+	}
+
+	/**
+	 * The shared pool of a size class.
+	 */
+	private static final class SizeClass {
+
+		SizeClass(int bufferSize) {
+			this.bufferSize = bufferSize;
+		}
+
+		final int bufferSize;
+		final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Buffers in the shared pool
+		 */
+		final AtomicInteger sharedCount = new AtomicInteger();
+
+		/**
+		 * Buffers available for reuse, in both the shared pool and the thread
+		 * caches
+		 */
+		final AtomicInteger pooled = new AtomicInteger();
+	}
+
+	/**
+	 * A tracked buffer, for leak detection. Leases with the same identity hash
+	 * code are chained.
+	 */
+	private static final class Lease extends WeakReference<ByteBuffer> {
+
+		Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			key = System.identityHashCode(buffer);
+			origin = new Throwable("Acquired " + buffer);
+		}
+
+		final int key;
+		final Throwable origin;
+		Lease next;
+	}
+
+	private static final int MIN_BUFFER_SHIFT = 9;
+	private static final int MIN_BUFFER_SIZE = 1 << MIN_BUFFER_SHIFT;
+	private static final int MAX_THREAD_CACHE_COUNT = 8;
+	private static final int MAX_THREAD_CACHE_BYTES = 256 * 1024;
+	private static final AfxBufferPool DEFAULT_POOL = new AfxBufferPool(1024 * 1024, 64);
+
+	/**
+	 * Set for the threads that cache buffers, see enableThreadCache()
+	 */
+	private static final ThreadLocal<Boolean> CACHING_THREAD = new ThreadLocal<>();
+
+	private final SizeClass[] sharedPools;
+	private final int maxPooledPerClass;
+	private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+	private final Map<Integer, Lease> leases = new HashMap<>();
+	private final ReferenceQueue<ByteBuffer> leakQueue = new ReferenceQueue<>();
+	private volatile boolean leakDetection;
+
+	/**
+	 * Buffers acquired before leak detection was switched on and not yet
+	 * released, guarded by the lock on leases
+	 */
+	private int untrackedOutstanding;
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final LongAdder acquireCount = new LongAdder();
+	private final LongAdder releaseCount = new LongAdder();
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder allocateCount = new LongAdder();
+	private final LongAdder unpooledCount = new LongAdder();
+	private final LongAdder leakCount = new LongAdder();
+}
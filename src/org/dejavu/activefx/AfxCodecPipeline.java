@@ -0,0 +1,240 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import org.dejavu.util.DjvExceptionUtil;
+import org.dejavu.util.DjvLogMsg.Category;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * Frames the data exchanged over a connection, using a pluggable decoder and
+ * encoder. Inbound frames are decoded in place from a streaming read and
+ * delivered to AfxEventHandler.frameReceived() as slices of the read buffer.
+ * Outbound frames are encoded and sent with queued writes, the framing going
+ * out along with the content in gathering writes. No frame content is ever
+ * copied.
+ * <p>
+ * The pipeline takes over the streaming read and the queued writes of its
+ * connection, these must not be used directly while the pipeline is in use.
+ */
+public class AfxCodecPipeline {
+
+	/**
+	 * Creates a new pipeline.
+	 *
+	 * @param connection The connection to frame.
+	 * @param decoder The decoder for inbound frames, null if only writing.
+	 * @param encoder The encoder for outbound frames, null if only reading.
+	 */
+	public AfxCodecPipeline(AfxConnection connection, AfxFrameDecoder decoder, AfxFrameEncoder encoder) {
+		this.connection = connection;
+		this.decoder = decoder;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * Starts reading frames. Each frame received is delivered to
+	 * AfxEventHandler.frameReceived(), by the reactor thread. A malformed
+	 * stream, or a frame not fitting in the buffer, closes the connection.
+	 *
+	 * @param buffer The cumulative read buffer, must be large enough for the
+	 * largest frame (including its framing).
+	 * @param handler The handler to receive the frames.
+	 * @return True if the request had been initiated, false if the request
+	 * failed to start some how.
+	 * @throws InterruptedException User interruption
+	 */
+	public boolean readFrames(ByteBuffer buffer, AfxEventHandler handler) throws InterruptedException {
+		if (null == decoder) {
+			throw new IllegalStateException("No decoder");
+		}
+		readHandler = handler;
+		return connection.readStream(buffer, frameReader);
+	}
+
+	/**
+	 * Stops reading frames. The bytes of any partial frame are delivered to
+	 * AfxEventHandler.readCompleted().
+	 *
+	 * @return True if reading is stopping, false if it was not ongoing.
+	 * @throws InterruptedException User interruption
+	 */
+	public boolean endReadFrames() throws InterruptedException {
+		return connection.endReadStream();
+	}
+
+	/**
+	 * Queues a frame to be written. Frame completions are reported via
+	 * AfxEventHandler.writesCompleted() and writesFailed(), in numbers of
+	 * frames.
+	 *
+	 * @param frame The frame content, must not be modified until its write is
+	 * reported as completed.
+	 * @param handler The handler to receive the write acknowledgements.
+	 * Acknowledgements for all frames go to the handler given with the latest
+	 * call.
+	 * @return True if the frame had been queued to be sent, false if the
+	 * connection is not open or the domain limit on pending write bytes is
+	 * reached.
+	 * @throws AfxException The frame cannot be encoded.
+	 */
+	public boolean writeFrame(ByteBuffer frame, AfxEventHandler handler) throws AfxException {
+		if (null == encoder) {
+			throw new IllegalStateException("No encoder");
+		}
+		ByteBuffer[] buffers = encoder.encode(frame);
+
+		// Frames are accounted for in the order they are queued, and before
+		// their acknowledgements may come in
+		synchronized (writeLock) {
+			writeHandler = handler;
+			frameWriter.framed(buffers.length);
+			if (!connection.queueWrite(buffers, frameWriter)) {
+				frameWriter.unframed();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves the connection framed by this pipeline.
+	 *
+	 * @return The connection.
+	 */
+	public AfxConnection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public String toString() {
+		return "{connection:" + connection + ", decoder:" + decoder + ", encoder:" + encoder + "}";
+	}
+
+	/**
+	 * Decodes the chunks of a streaming read, and passes the other read events
+	 * through.
+	 */
+	private class FrameReader implements AfxEventHandler {
+
+		@Override
+		public void dataAvailable(ByteBuffer buffer) {
+			AfxEventHandler handler = readHandler;
+			try {
+				ByteBuffer frame;
+				while (null != (frame = decoder.decode(buffer))) {
+					connection.traffic.messagesRead(1);
+					handler.frameReceived(frame);
+				}
+				if ((0 == buffer.position()) && (buffer.limit() == buffer.capacity())) {
+					// Reading would otherwise be suspended for good
+					throw new AfxException("Frame larger than the read buffer of " + buffer.capacity() + " bytes");
+				}
+			} catch (AfxException e) {
+				DjvSystem.logWarning(Category.DESIGN, "Closing " + connection + " due to " + DjvExceptionUtil.simpleTrace(e));
+
+				// Nothing more can be made of this stream
+				buffer.position(buffer.limit());
+				connection.close();
+			}
+		}
+
+		@Override
+		public void readCompleted(ByteBuffer returnedBuffer) {
+			readHandler.readCompleted(returnedBuffer);
+		}
+
+		@Override
+		public void readFailed() {
+			readHandler.readFailed();
+		}
+	}
+
+	/**
+	 * Translates the queued write completions, counted in buffers, into frame
+	 * completions.
+	 */
+	private class FrameWriter implements AfxEventHandler {
+
+		/**
+		 * Accounts for a new frame being queued.
+		 *
+		 * @param numBuffers Number of buffers making up the frame.
+		 */
+		synchronized void framed(int numBuffers) {
+			buffersPerFrame.addLast(numBuffers);
+		}
+
+		/**
+		 * Withdraws the frame last accounted for, which was not queued after
+		 * all.
+		 */
+		synchronized void unframed() {
+			buffersPerFrame.removeLast();
+		}
+
+		@Override
+		public void writesCompleted(int numWrites) {
+			int frames;
+			synchronized (this) {
+				frames = completeFrames(numWrites);
+			}
+			if (0 < frames) {
+				writeHandler.writesCompleted(frames);
+			}
+		}
+
+		@Override
+		public void writabilityChanged(boolean writable) {
+			writeHandler.writabilityChanged(writable);
+		}
+
+		@Override
+		public void writesFailed(int numWrites) {
+			int frames;
+			synchronized (this) {
+				// Failed buffers are those left in the queue, hence a frame
+				// partially written counts as failed
+				frames = completeFrames(numWrites);
+			}
+			if (0 < frames) {
+				writeHandler.writesFailed(frames);
+			}
+		}
+
+		/**
+		 * Accounts for some buffers being done with.
+		 *
+		 * @param numBuffers The number of buffers done with.
+		 * @return The number of frames now entirely done with.
+		 */
+		private int completeFrames(int numBuffers) {
+			completedBuffers += numBuffers;
+			int frames = 0;
+			Integer head;
+			while ((null != (head = buffersPerFrame.peekFirst())) && (completedBuffers >= head)) {
+				completedBuffers -= head;
+				buffersPerFrame.removeFirst();
+				++frames;
+			}
+			return frames;
+		}
+
+		private final ArrayDeque<Integer> buffersPerFrame = new ArrayDeque<>();
+		private int completedBuffers;
+	}
+
+	private final AfxConnection connection;
+	private final AfxFrameDecoder decoder;
+	private final AfxFrameEncoder encoder;
+	private final FrameReader frameReader = new FrameReader();
+	private final FrameWriter frameWriter = new FrameWriter();
+
+	/**
+	 * Serializes the frame writes, never held while acknowledgements are
+	 * reported
+	 */
+	private final Object writeLock = new Object();
+	private volatile AfxEventHandler readHandler;
+	private volatile AfxEventHandler writeHandler;
+}
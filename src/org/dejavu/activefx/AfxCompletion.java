@@ -0,0 +1,78 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A future that is also the event handler of the request it stands for, so
+ * that each asynchronous step costs a single object. It is completed directly
+ * from the FSM transition action (or reactor thread, for inline completions)
+ * reporting the outcome, i.e. dependent stages that are not *Async run on that
+ * thread, from within a transition of the connection, and must not block.
+ *
+ * @param <T> The type of the result.
+ */
+class AfxCompletion<T> extends CompletableFuture<T> implements AfxEventHandler {
+
+	/**
+	 * Creates a completion for a request.
+	 *
+	 * @param connection The connection the request is for.
+	 * @param result The result to complete with once the request succeeds.
+	 */
+	AfxCompletion(AfxConnection connection, T result) {
+		this.connection = connection;
+		this.result = result;
+	}
+
+	/**
+	 * Completes exceptionally, as the request failed.
+	 *
+	 * @param cause Description of the failure.
+	 * @return This object.
+	 */
+	AfxCompletion<T> fail(String cause) {
+		completeExceptionally(new AfxException(cause + " on " + connection));
+		return this;
+	}
+
+	@Override
+	public void openCompleted() {
+		complete(result);
+	}
+
+	@Override
+	public void openFailed(String theCause) {
+		fail("Open failed: " + theCause);
+	}
+
+	@Override
+	public void closed() {
+		// Only reaches the open request, which has long completed unless the
+		// connection closed while opening
+		fail("Closed");
+	}
+
+	@Override
+	public void readCompleted(ByteBuffer returnedBuffer) {
+		complete(result);
+	}
+
+	@Override
+	public void readFailed() {
+		fail("Read failed");
+	}
+
+	@Override
+	public void writeCompleted() {
+		complete(result);
+	}
+
+	@Override
+	public void writeFailed() {
+		fail("Write failed");
+	}
+
+	private final AfxConnection connection;
+	private final T result;
+}
@@ -11,6 +11,12 @@ import org.dejavu.util.DjvExceptionUtil;
 import org.dejavu.util.DjvLogMsg.Category;
 import org.dejavu.util.DjvSystem;
 import java.nio.channels.SelectableChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The abstract interface for all Active FX connection types.
@@ -25,6 +31,9 @@ public abstract class AfxConnection implements FsmContext {
 	 */
 	public AfxConnection(AfxDomain domain) {
 		this.domain = domain;
+		reactor = domain.assignReactor();
+		outboundQueue = new AfxOutboundQueue(domain);
+		traffic = new AfxTrafficMonitor(domain.getTrafficMonitor());
 		setCurrentState(this.domain.getInitialState());
 	}
 
@@ -93,6 +102,131 @@ public abstract class AfxConnection implements FsmContext {
 		return domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ, this, buffer, handler), true);
 	}
 
+	/**
+	 * Initiates a streaming read from the connection. Unlike read(), the read
+	 * does not complete when the buffer is full. Instead every chunk of data
+	 * read in is delivered to AfxEventHandler.dataAvailable(), until the stream
+	 * is ended with endReadStream(), upon which the bytes left unconsumed are
+	 * delivered to AfxEventHandler.readCompleted(). Reading is suspended
+	 * whenever the buffer is full of unconsumed data, until resumed with
+	 * resumeReadStream(). A failure (e.g. end of stream) is reported via
+	 * AfxEventHandler.readFailed(). Only one read request, streaming or not,
+	 * will be accepted at any one time.
+	 *
+	 * @param buffer The buffer with which to read data into.
+	 * @param handler The event handler to receive the data and read
+	 * acknowledgements.
+	 * @return True if the request had been initiated, false if the request
+	 * failed to start some how.
+	 * @throws java.lang.InterruptedException
+	 */
+	public boolean readStream(ByteBuffer buffer, AfxEventHandler handler) throws InterruptedException {
+		return domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_STREAM, this, buffer, handler), true);
+	}
+
+	/**
+	 * Resumes a streaming read suspended due to its buffer being full. The
+	 * unconsumed data is presented to the handler again, and reading resumes
+	 * if any room is made. Does nothing if no streaming read is ongoing, or if
+	 * the data is being presented by another thread, which then resumes
+	 * reading itself. Must not be invoked while holding the lock on a
+	 * connection.
+	 *
+	 * @throws java.lang.InterruptedException
+	 */
+	public void resumeReadStream() throws InterruptedException {
+		pumpStreamData();
+	}
+
+	/**
+	 * Ends the ongoing streaming read, no more data is delivered to
+	 * AfxEventHandler.dataAvailable(). The read then completes as usual, with
+	 * the bytes left unconsumed.
+	 *
+	 * @return True if the stream is ending, false if no streaming read was
+	 * ongoing.
+	 * @throws java.lang.InterruptedException
+	 */
+	public synchronized boolean endReadStream() throws InterruptedException {
+		if (!readStreaming) {
+			return false;
+		}
+
+		readStreaming = false;
+		endStreamRead();
+		if (streamDelivering) {
+			// Completed once the data being presented is compacted
+			streamEndPending = true;
+			return true;
+		}
+		return domain.dispatchEvent(readCompleteEvent, true);
+	}
+
+	/**
+	 * Starts a streaming read synchronously, i.e. the transition is carried
+	 * out by the calling thread rather than queued to the FSM domain, so that
+	 * it can be ended synchronously as well with endReadStreamNow(). Not
+	 * started while events are still queued for this connection, which the
+	 * transition would otherwise overtake. Must not be invoked from within a
+	 * transition of this connection, nor while holding the lock on a
+	 * connection.
+	 *
+	 * @param buffer The buffer with which to read data into.
+	 * @param handler The event handler to receive the data and read
+	 * acknowledgements.
+	 * @return True if the streaming read is ongoing, false if it could not be
+	 * started, e.g. the connection is not idle, or events are still queued.
+	 * @throws java.lang.InterruptedException
+	 */
+	boolean readStreamNow(ByteBuffer buffer, AfxEventHandler handler) throws InterruptedException {
+		synchronized (transitionLock) {
+			if (0 != queuedEvents.get()) {
+				return false;
+			}
+			if (!domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_STREAM, this, buffer, handler), false)) {
+				return false;
+			}
+			synchronized (this) {
+				return readStreaming;
+			}
+		}
+	}
+
+	/**
+	 * Ends the ongoing streaming read synchronously, see readStreamNow(). If
+	 * events are still queued for this connection, e.g. a read failure
+	 * detected meanwhile, the completion is queued behind them instead, and
+	 * reported to the handler once they are processed. Must not be invoked
+	 * from within a transition of this connection, nor while holding the lock
+	 * on a connection.
+	 *
+	 * @return True if the stream ended, false if no streaming read was
+	 * ongoing, or its completion was queued.
+	 * @throws java.lang.InterruptedException
+	 */
+	boolean endReadStreamNow() throws InterruptedException {
+		synchronized (transitionLock) {
+			synchronized (this) {
+				if (!readStreaming) {
+					return false;
+				}
+
+				readStreaming = false;
+				endStreamRead();
+				if (streamDelivering) {
+					// Completed once the data being presented is compacted
+					streamEndPending = true;
+					return false;
+				}
+			}
+			if (0 != queuedEvents.get()) {
+				domain.dispatchEvent(readCompleteEvent, true);
+				return false;
+			}
+			return domain.dispatchEvent(readCompleteEvent, false);
+		}
+	}
+
 	/**
 	 * Initiates writing of a message to the connection. Only one write request
 	 * will be accepted at any one time. Should only be invoked after the
@@ -108,6 +242,328 @@ public abstract class AfxConnection implements FsmContext {
 		return domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE, this, buffer, handler), true);
 	}
 
+	/**
+	 * Initiates the connection request to the server, as open(String, int,
+	 * AfxEventHandler) does, reporting the outcome via the returned stage.
+	 * <p>
+	 * The stages returned by the *Async methods are completed directly from
+	 * the FSM transition reporting the outcome, without any thread hand-off.
+	 * Dependent stages that are not themselves *Async hence run on an FSM or
+	 * reactor thread, from within a transition of this connection, and must
+	 * not block; issuing the next request from them is fine. Failures complete the
+	 * stages exceptionally with an AfxException.
+	 *
+	 * @param remoteIpAddr IP address or host name of the server
+	 * @param remoteIpPort Server port.
+	 * @return The stage completed with this connection once open.
+	 * @throws java.lang.InterruptedException
+	 */
+	public CompletionStage<AfxConnection> openAsync(String remoteIpAddr, int remoteIpPort) throws InterruptedException {
+		AfxCompletion<AfxConnection> completion = new AfxCompletion<>(this, this);
+		return open(remoteIpAddr, remoteIpPort, completion) ? completion : completion.fail("Open rejected");
+	}
+
+	/**
+	 * Initiates reading of a message from the connection, as read() does,
+	 * reporting the outcome via the returned stage. See openAsync().
+	 *
+	 * @param buffer The buffer with which to read message into.
+	 * @return The stage completed with the buffer, flipped to expose the
+	 * message read in.
+	 * @throws java.lang.InterruptedException
+	 */
+	public CompletionStage<ByteBuffer> readAsync(ByteBuffer buffer) throws InterruptedException {
+		AfxCompletion<ByteBuffer> completion = new AfxCompletion<>(this, buffer);
+		if (!AfxConnectionFsmDomain.isOpenState(getCurrentState())) {
+			return completion.fail("Not open, read rejected");
+		}
+		return read(buffer, completion) ? completion : completion.fail("Read rejected");
+	}
+
+	/**
+	 * Initiates writing of a message to the connection, as write() does,
+	 * reporting the outcome via the returned stage. See openAsync().
+	 *
+	 * @param buffer The buffer containing the message write.
+	 * @return The stage completed with this connection once the message is
+	 * written.
+	 * @throws java.lang.InterruptedException
+	 */
+	public CompletionStage<AfxConnection> writeAsync(ByteBuffer buffer) throws InterruptedException {
+		AfxCompletion<AfxConnection> completion = new AfxCompletion<>(this, this);
+		if (!AfxConnectionFsmDomain.isOpenState(getCurrentState())) {
+			return completion.fail("Not open, write rejected");
+		}
+		return write(buffer, completion) ? completion : completion.fail("Write rejected");
+	}
+
+	/**
+	 * Closes the connection, reporting via the returned stage once closed. A
+	 * read and/or write in progress fails first, as with close(), then the
+	 * stage completes as the connection reaches the closed state, whichever
+	 * state it was closed from. All callers closing the connection
+	 * concurrently share the same stage. See openAsync().
+	 *
+	 * @return The stage completed with this connection once closed.
+	 * @throws java.lang.InterruptedException
+	 */
+	public CompletionStage<AfxConnection> closeAsync() throws InterruptedException {
+		AfxCompletion<AfxConnection> completion;
+		synchronized (this) {
+			if (null == closeCompletion) {
+				closeCompletion = new AfxCompletion<>(this, this);
+			}
+			completion = closeCompletion;
+		}
+		if (!domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE, this), true)) {
+			completion.fail("Close rejected");
+		}
+		return completion;
+	}
+
+	/**
+	 * Queues a message to be written to the connection. Unlike write(), any
+	 * number of messages may be queued without waiting for the previous ones
+	 * to complete. Queued messages are written in order, as many at a time as
+	 * the connection allows, and their completions are reported in batches via
+	 * AfxEventHandler.writesCompleted(). Messages queued but not yet written
+	 * when the connection closes are reported via
+	 * AfxEventHandler.writesFailed().
+	 * <p>
+	 * The bytes queued but not yet written are subject to the write
+	 * watermarks: the connection turns unwritable when they exceed the high
+	 * watermark, and writable again once they drop to the low watermark, each
+	 * change being reported via AfxEventHandler.writabilityChanged(). The
+	 * report is deferred to the FSM dispatch thread rather than made from
+	 * within this method, isWritable() tells the current state. Producers
+	 * should hold off while the connection is unwritable. The watermarks are
+	 * advisory, the hard limit is that of the domain on the bytes pending over
+	 * all its connections.
+	 *
+	 * @param buffer The buffer containing the message to write, must not be
+	 * modified until its write is reported as completed.
+	 * @param handler The event handler to receive the write acknowledgements
+	 * and writability changes. Acknowledgements for all queued writes go to
+	 * the handler given with the latest call.
+	 * @return True if the message had been queued to be sent, false means the
+	 * connection is not open, or the domain limit on pending bytes is reached.
+	 * The message will not be sent.
+	 */
+	public synchronized boolean queueWrite(ByteBuffer buffer, AfxEventHandler handler) {
+		if (!admitQueuedWrite(buffer.remaining())) {
+			return false;
+		}
+
+		queuedWriteEventHandler = handler;
+		if (outboundQueue.offer(buffer)) {
+			startQueuedWrites();
+		}
+		checkHighWatermark();
+		return true;
+	}
+
+	/**
+	 * Queues several buffers to be written to the connection, as one unit:
+	 * either all buffers are queued, back to back, or none is. Otherwise the
+	 * same as queueWrite(ByteBuffer, AfxEventHandler), each buffer counting as
+	 * one write in the acknowledgements.
+	 *
+	 * @param buffers The buffers to write, in order.
+	 * @param handler The event handler to receive the write acknowledgements
+	 * and writability changes.
+	 * @return True if the buffers had been queued to be sent, false means the
+	 * connection is not open, or the domain limit on pending bytes is reached.
+	 * Nothing will be sent.
+	 */
+	public synchronized boolean queueWrite(ByteBuffer[] buffers, AfxEventHandler handler) {
+		long bytes = 0;
+		for (ByteBuffer buffer : buffers) {
+			bytes += buffer.remaining();
+		}
+		if (!admitQueuedWrite(bytes)) {
+			return false;
+		}
+
+		queuedWriteEventHandler = handler;
+		for (ByteBuffer buffer : buffers) {
+			if (outboundQueue.offer(buffer)) {
+				startQueuedWrites();
+			}
+		}
+		checkHighWatermark();
+		return true;
+	}
+
+	/**
+	 * Specifies the watermarks on the bytes queued for writing but not yet
+	 * written, see queueWrite().
+	 *
+	 * @param low The low watermark, at or below which an unwritable connection
+	 * turns writable again.
+	 * @param high The high watermark, above which the connection turns
+	 * unwritable.
+	 * @return This object.
+	 */
+	public synchronized AfxConnection setWriteWatermarks(long low, long high) {
+		if ((low < 0) || (low > high)) {
+			throw new IllegalArgumentException("Invalid watermarks low " + low + " high " + high);
+		}
+		lowWatermark = low;
+		highWatermark = high;
+		return this;
+	}
+
+	/**
+	 * Determines whether the connection is writable, i.e. the bytes pending in
+	 * its outbound queue had not exceeded the high watermark, or had since
+	 * dropped to the low watermark.
+	 *
+	 * @return True if writable, false otherwise.
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * Retrieves the number of bytes queued for writing but not yet written.
+	 *
+	 * @return The number of pending bytes.
+	 */
+	public long getPendingWriteBytes() {
+		return outboundQueue.getPendingBytes();
+	}
+
+	/**
+	 * Retrieves a snapshot of the traffic statistics of this connection,
+	 * along with the number of its events queued to the FSM domain.
+	 *
+	 * @return The statistics snapshot, never null.
+	 */
+	public AfxStatistics getStatistics() {
+		return traffic.snapshot(queuedEvents.get());
+	}
+
+	/**
+	 * Specifies how long a read may take, from the request until the buffer is
+	 * filled, before failing via AfxEventHandler.readFailed(). Does not apply
+	 * to streaming reads, see setIdleTimeout() for those. Takes effect with the
+	 * next read. Timeouts have a resolution of AfxReactor.TIMER_TICK_MS.
+	 *
+	 * @param timeoutMs The timeout in milliseconds, zero (the default) for
+	 * none.
+	 * @return This object.
+	 */
+	public synchronized AfxConnection setReadTimeout(long timeoutMs) {
+		timeoutsMs[TIMEOUT_READ] = timeoutMs;
+		return this;
+	}
+
+	/**
+	 * Specifies how long a write() or sendFile() may take before failing via
+	 * AfxEventHandler.writeFailed(). Does not apply to queued writes. Takes
+	 * effect with the next write.
+	 *
+	 * @param timeoutMs The timeout in milliseconds, zero (the default) for
+	 * none.
+	 * @return This object.
+	 */
+	public synchronized AfxConnection setWriteTimeout(long timeoutMs) {
+		timeoutsMs[TIMEOUT_WRITE] = timeoutMs;
+		return this;
+	}
+
+	/**
+	 * Specifies how long opening the connection may take before failing via
+	 * AfxEventHandler.openFailed(), including the TLS handshake if any. Takes
+	 * effect with the next open() or connect().
+	 *
+	 * @param timeoutMs The timeout in milliseconds, zero (the default) for
+	 * none.
+	 * @return This object.
+	 */
+	public synchronized AfxConnection setConnectTimeout(long timeoutMs) {
+		timeoutsMs[TIMEOUT_CONNECT] = timeoutMs;
+		return this;
+	}
+
+	/**
+	 * Specifies how long the connection may stay open without anything being
+	 * read or written before it is closed. Takes effect immediately.
+	 *
+	 * @param timeoutMs The timeout in milliseconds, zero (the default) for
+	 * none.
+	 * @return This object.
+	 */
+	public synchronized AfxConnection setIdleTimeout(long timeoutMs) {
+		timeoutsMs[TIMEOUT_IDLE] = timeoutMs;
+		if (AfxConnectionFsmDomain.isOpenState(getCurrentState())) {
+			recordActivity(AfxReactor.currentTimeMs());
+			startTimeout(TIMEOUT_IDLE);
+		}
+		if (0 >= timeoutMs) {
+			stopTimeout(TIMEOUT_IDLE);
+		}
+		return this;
+	}
+
+	/**
+	 * Acquires a direct buffer from the buffer pool of the domain, on behalf
+	 * of this connection, e.g. for use with read(). The buffer may be given
+	 * back with releaseBuffer(), otherwise it is released when the connection
+	 * closes, and must no longer be used then.
+	 *
+	 * @param minCapacity The minimum capacity required.
+	 * @return A cleared buffer whose limit is the requested capacity.
+	 */
+	public ByteBuffer acquireBuffer(int minCapacity) {
+		ByteBuffer retValue = domain.getBufferPool().acquire(minCapacity);
+		synchronized (leasedBuffers) {
+			leasedBuffers.add(retValue);
+		}
+		return retValue;
+	}
+
+	/**
+	 * Releases a buffer acquired with acquireBuffer() back to the pool. The
+	 * buffer must no longer be used.
+	 *
+	 * @param buffer The buffer to release.
+	 * @return True if released, false if not acquired via this connection (or
+	 * already released).
+	 */
+	public boolean releaseBuffer(ByteBuffer buffer) {
+		synchronized (leasedBuffers) {
+			if (!leasedBuffers.remove(buffer)) {
+				return false;
+			}
+		}
+		domain.getBufferPool().release(buffer);
+		return true;
+	}
+
+	/**
+	 * Releases all buffers still leased by this connection, as it closes.
+	 */
+	void releaseLeasedBuffers() {
+		ByteBuffer[] buffers;
+		synchronized (leasedBuffers) {
+			buffers = leasedBuffers.toArray(new ByteBuffer[leasedBuffers.size()]);
+			leasedBuffers.clear();
+		}
+		AfxBufferPool pool = domain.getBufferPool();
+		for (ByteBuffer buffer : buffers) {
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Gives back the resources held by a connection that never got to open,
+	 * e.g. as its domain rejected the request, and hence will not close.
+	 */
+	void discard() {
+		releaseLeasedBuffers();
+	}
+
 	/**
 	 * Initiates the registering mode on the channel
 	 *
@@ -186,6 +642,364 @@ public abstract class AfxConnection implements FsmContext {
 
 	abstract void initiateConnect(FsmEvent evt) throws InterruptedException;
 
+	/**
+	 * Resumes reading for a streaming read, the read buffer now has room.
+	 * Invoked while holding the lock on this connection.
+	 *
+	 * @return True if more data was read into the buffer right away, to be
+	 * presented to the read handler by the caller.
+	 * @throws InterruptedException User interruption
+	 */
+	abstract boolean resumeStreamRead() throws InterruptedException;
+
+	/**
+	 * Stops reading for a streaming read whose buffer is full of unconsumed
+	 * data, until resumed. Invoked while holding the lock on this connection.
+	 */
+	abstract void suspendStreamRead();
+
+	/**
+	 * Stops reading for a streaming read being ended. Invoked while holding
+	 * the lock on this connection.
+	 */
+	abstract void endStreamRead();
+
+	/**
+	 * Presents the data in the read buffer of a streaming read to the read
+	 * handler, keeping whatever is not consumed, and suspends reading if the
+	 * buffer is left full. The handler is invoked without holding the lock on
+	 * this connection, as it may well write to other connections, hence the
+	 * caller must not hold it either. Meanwhile no data is read into the
+	 * buffer, and ending the stream is held back until the data is compacted.
+	 *
+	 * @return True if the read buffer has room for more data, false if it is
+	 * full, the stream ended, or the data is being presented by another
+	 * thread.
+	 * @throws InterruptedException User interruption
+	 */
+	boolean deliverStreamData() throws InterruptedException {
+		AfxEventHandler handler;
+		ByteBuffer buffer;
+		synchronized (this) {
+			if (!readStreaming || streamDelivering) {
+				return false;
+			}
+			if (0 == readBuffer.position()) {
+				return readBuffer.hasRemaining();
+			}
+			readBuffer.flip();
+			streamDelivering = true;
+			handler = readEventHandler;
+			buffer = readBuffer;
+		}
+
+		boolean room;
+		boolean ended;
+		try {
+			if (null != handler) {
+				handler.dataAvailable(buffer);
+			} else {
+				buffer.position(buffer.limit());
+			}
+		} finally {
+			synchronized (this) {
+				buffer.compact();
+				streamDelivering = false;
+				ended = streamEndPending;
+				streamEndPending = false;
+				room = readStreaming && buffer.hasRemaining();
+				if (readStreaming && !room) {
+					// Buffer full of unconsumed data, suspend reading until resumed
+					suspendStreamRead();
+				}
+			}
+		}
+		if (ended) {
+			domain.dispatchEvent(readCompleteEvent, true);
+		}
+		return room;
+	}
+
+	/**
+	 * Presents the data of a streaming read to the read handler, and reads in
+	 * more, for as long as the handler makes room and more data is at hand.
+	 * Must not be invoked while holding the lock on this connection.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	void pumpStreamData() throws InterruptedException {
+		while (deliverStreamData()) {
+			synchronized (this) {
+				if (!readStreaming || !resumeStreamRead()) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts flushing the outbound queue, which just turned non-empty. Invoked
+	 * while holding the lock on this connection.
+	 */
+	abstract void startQueuedWrites();
+
+	/**
+	 * Arms a timeout, if configured, in the timing wheel of the reactor. Read
+	 * timeouts are not armed for streaming reads.
+	 *
+	 * @param kind The kind of timeout, one of the TIMEOUT_* values.
+	 */
+	synchronized void startTimeout(int kind) {
+		long timeoutMs = timeoutsMs[kind];
+		if ((0 < timeoutMs) && !((TIMEOUT_READ == kind) && readStreaming)) {
+			AfxTimeout timeout = timeouts[kind];
+			if (null == timeout) {
+				timeout = new AfxTimeout(this, kind);
+				timeouts[kind] = timeout;
+			}
+			reactor.scheduleTimeout(timeout, timeoutMs);
+		}
+	}
+
+	/**
+	 * Disarms a timeout. Does nothing if not armed.
+	 *
+	 * @param kind The kind of timeout, one of the TIMEOUT_* values.
+	 */
+	synchronized void stopTimeout(int kind) {
+		AfxTimeout timeout = timeouts[kind];
+		if (null != timeout) {
+			reactor.cancelTimeout(timeout);
+		}
+	}
+
+	/**
+	 * Disarms all timeouts, as the connection closes.
+	 */
+	synchronized void stopTimeouts() {
+		for (AfxTimeout timeout : timeouts) {
+			if (null != timeout) {
+				reactor.cancelTimeout(timeout);
+			}
+		}
+	}
+
+	/**
+	 * Records I/O activity on the connection, for the idle timeout.
+	 *
+	 * @param nowMs The current time, as per AfxReactor.currentTimeMs().
+	 */
+	final void recordActivity(long nowMs) {
+		lastActivityMs = nowMs;
+	}
+
+	/**
+	 * Handles the expiry of a timeout, firing the matching failure event if
+	 * the operation it guards is still ongoing. Invoked by the reactor thread.
+	 *
+	 * @param timeout The expired timeout.
+	 * @throws InterruptedException User interruption
+	 */
+	synchronized void timedOut(AfxTimeout timeout) throws InterruptedException {
+		if (!reactor.claimTimeout(timeout)) {
+			// Re-armed or disarmed since
+			return;
+		}
+
+		FsmState state = getCurrentState();
+		long timeoutMs = timeoutsMs[timeout.kind];
+		switch (timeout.kind) {
+			case TIMEOUT_READ:
+				if (((state == AfxConnectionFsmDomain.AFX_READING) || (state == AfxConnectionFsmDomain.AFX_READ_WRITE)) && !readStreaming) {
+					DjvSystem.logWarning(Category.DESIGN, "Read timed out after " + timeoutMs + " ms on " + this);
+					readTimedOut();
+				}
+				break;
+			case TIMEOUT_WRITE:
+				if ((state == AfxConnectionFsmDomain.AFX_WRITING) || (state == AfxConnectionFsmDomain.AFX_READ_WRITE)) {
+					DjvSystem.logWarning(Category.DESIGN, "Write timed out after " + timeoutMs + " ms on " + this);
+					writeTimedOut();
+				}
+				break;
+			case TIMEOUT_CONNECT:
+				if (state == AfxConnectionFsmDomain.AFX_OPENNING) {
+					domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.OPEN_FAILURE, this, "Timed out after " + timeoutMs + " ms"), true);
+				}
+				break;
+			default:
+				if (AfxConnectionFsmDomain.isOpenState(state) && (0 < timeoutMs)) {
+					long idleMs = AfxReactor.currentTimeMs() - lastActivityMs;
+					if (idleMs < timeoutMs) {
+						// There was some activity since, check again later
+						reactor.scheduleTimeout(timeout, timeoutMs - idleMs);
+					} else {
+						DjvSystem.logInfo(Category.DESIGN, "Closing " + this + ", idle for " + idleMs + " ms");
+						domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE, this), true);
+					}
+				}
+		}
+	}
+
+	/**
+	 * Fails the ongoing read, which timed out. Invoked by the reactor thread
+	 * while holding the lock on this connection.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	void readTimedOut() throws InterruptedException {
+		domain.dispatchCompletion(readFailureEvent);
+	}
+
+	/**
+	 * Fails the ongoing write, which timed out. Invoked by the reactor thread
+	 * while holding the lock on this connection.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	void writeTimedOut() throws InterruptedException {
+		domain.dispatchCompletion(writeFailureEvent);
+	}
+
+	/**
+	 * Checks whether new queued writes can be accepted, reserving room for
+	 * them in the domain. Must hold the lock on this connection.
+	 *
+	 * @param bytes The number of bytes to be queued.
+	 * @return True if the writes can be queued, false otherwise.
+	 */
+	private boolean admitQueuedWrite(long bytes) {
+		if (!AfxConnectionFsmDomain.isOpenState(getCurrentState())) {
+			return false;
+		}
+		if (!domain.reservePendingWriteBytes(bytes)) {
+			if (DjvSystem.diagnosticEnabled()) {
+				DjvSystem.logInfo(Category.DESIGN, "Domain limit on pending write bytes reached, rejecting " + bytes + " bytes for " + this);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Turns the connection unwritable if the pending bytes exceed the high
+	 * watermark. The change is reported later, by the QUEUED_WRITE_COMPLETE
+	 * event queued to the domain, not from within the caller. Must hold the
+	 * lock on this connection.
+	 */
+	private void checkHighWatermark() {
+		if (writable && (outboundQueue.getPendingBytes() > highWatermark)) {
+			writable = false;
+			writabilityChanges.incrementAndGet();
+			if (queuedWriteEventPending.compareAndSet(false, true)) {
+				try {
+					if (!domain.dispatchEvent(queuedWriteCompleteEvent, true)) {
+						queuedWriteEventPending.set(false);
+					}
+				} catch (InterruptedException e) {
+					queuedWriteEventPending.set(false);
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accounts for queued writes having completed or failed, and dispatches a
+	 * QUEUED_WRITE_COMPLETE event to report them, unless one is already
+	 * pending in which case it will report these as well.
+	 *
+	 * @param completed The number of writes completed.
+	 * @param failed The number of writes failed.
+	 * @throws InterruptedException User interruption
+	 */
+	void queuedWritesDone(int completed, int failed) throws InterruptedException {
+		if (0 < completed) {
+			queuedWritesCompleted.addAndGet(completed);
+			traffic.messagesWritten(completed);
+		}
+		if (0 < failed) {
+			queuedWritesFailed.addAndGet(failed);
+			traffic.writesFailed(failed);
+		}
+		if (!writable && (outboundQueue.getPendingBytes() <= lowWatermark)) {
+			writable = true;
+			writabilityChanges.incrementAndGet();
+		}
+		if (queuedWriteEventPending.compareAndSet(false, true)) {
+			if (!domain.dispatchCompletion(queuedWriteCompleteEvent)) {
+				queuedWriteEventPending.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Drops all messages still in the outbound queue, accounting for them as
+	 * failed. Invoked from within an FSM transition, as the connection closes,
+	 * while holding the lock on this connection. They are reported along with
+	 * any completion not yet reported by queuedWriteComplete(), once the lock
+	 * is released.
+	 */
+	void failQueuedWrites() {
+		int dropped = outboundQueue.clear();
+		if (0 < dropped) {
+			queuedWritesFailed.addAndGet(dropped);
+			traffic.writesFailed(dropped);
+		}
+
+		// Closing, no point reporting the connection as writable again
+		writable = true;
+		writabilityChanges.set(0);
+	}
+
+	/**
+	 * Reports the connection as closed to those waiting via closeAsync().
+	 * Invoked from within an FSM transition, once the connection is closed.
+	 *
+	 * @param evt The CLOSE_COMPLETE or CLOSE event.
+	 */
+	void closeComplete(FsmEvent evt) {
+		AfxCompletion<AfxConnection> completion;
+		synchronized (this) {
+			traffic.closed();
+			completion = closeCompletion;
+			closeCompletion = null;
+		}
+		if (null != completion) {
+			completion.complete(this);
+		}
+	}
+
+	/**
+	 * Reports the queued writes completed or failed since the last report.
+	 *
+	 * @param evt The QUEUED_WRITE_COMPLETE event, null if invoked directly.
+	 */
+	void queuedWriteComplete(FsmEvent evt) {
+		// Clear the flag first, anything accounted for after this is reported
+		// either here or with the next event
+		queuedWriteEventPending.set(false);
+		int completed = queuedWritesCompleted.getAndSet(0);
+		int failed = queuedWritesFailed.getAndSet(0);
+		int changes = writabilityChanges.getAndSet(0);
+		AfxEventHandler handler = queuedWriteEventHandler;
+		if (null != handler) {
+			if (0 < completed) {
+				handler.writesCompleted(completed);
+			}
+			if (0 < failed) {
+				handler.writesFailed(failed);
+			}
+			if (0 < changes) {
+				// Coalesced changes that cancel each other out are still
+				// reported, a producer may have seen the intermediate state
+				if (0 == (changes % 2)) {
+					handler.writabilityChanged(!writable);
+				}
+				handler.writabilityChanged(writable);
+			}
+		}
+	}
+
 	@SuppressWarnings("NestedAssignment")
 	synchronized boolean readGuard(FsmEvent evt) {
 		try {
@@ -193,6 +1007,7 @@ public abstract class AfxConnection implements FsmContext {
 			if (null != (readBuffer = event.getBuffer())) {
 				readBuffer.clear();
 				readEventHandler = event.getEventHandler();
+				readStreaming = false;
 				return true;
 			}
 		} catch (Exception e) {
@@ -203,6 +1018,26 @@ public abstract class AfxConnection implements FsmContext {
 		return false;
 	}
 
+	/**
+	 * Accepts a file transfer request. Only connections supporting file
+	 * transfers override this.
+	 *
+	 * @param evt The SEND_FILE event.
+	 * @return True if the transfer is to proceed, false otherwise.
+	 */
+	boolean sendFileGuard(FsmEvent evt) {
+		DjvSystem.logWarning(Category.DESIGN, "File transfer not supported on " + this);
+		return false;
+	}
+
+	synchronized boolean readStreamGuard(FsmEvent evt) {
+		if (readGuard(evt)) {
+			readStreaming = true;
+			return true;
+		}
+		return false;
+	}
+
 	@SuppressWarnings("NestedAssignment")
 	boolean writeGuard(FsmEvent evt) {
 		try {
@@ -223,17 +1058,129 @@ public abstract class AfxConnection implements FsmContext {
 	public final static int AFX_CONNECTION_UDP = 2;
 	public final static int AFX_CONNECTION_TLS = 3;
 
+	/**
+	 * Default write watermarks, see setWriteWatermarks()
+	 */
+	public final static long DEFAULT_LOW_WATERMARK = 32 * 1024;
+	public final static long DEFAULT_HIGH_WATERMARK = 64 * 1024;
+
+	/**
+	 * Kinds of timeouts, see setReadTimeout() etc.
+	 */
+	static final int TIMEOUT_READ = 0;
+	static final int TIMEOUT_WRITE = 1;
+	static final int TIMEOUT_CONNECT = 2;
+	static final int TIMEOUT_IDLE = 3;
+
 	@SuppressWarnings("ProtectedField")
 	protected ByteBuffer readBuffer = null;
 	@SuppressWarnings("ProtectedField")
 	protected ByteBuffer m_WriteBuffer = null;
 
+	/**
+	 * Whether the ongoing read is a streaming read, guarded by the lock on
+	 * this connection
+	 */
+	boolean readStreaming;
+
+	/**
+	 * Whether the data of the streaming read is being presented to the read
+	 * handler, and whether the stream ended meanwhile, its completion being
+	 * held back, guarded by the lock on this connection
+	 */
+	boolean streamDelivering;
+	boolean streamEndPending;
+
 	/**
 	 * The domain governing this connection
 	 */
 	@SuppressWarnings("ProtectedField")
 	protected final AfxDomain domain;
 
+	/**
+	 * The reactor serving this connection, assigned by the domain at creation
+	 */
+	final AfxReactor reactor;
+
+	/**
+	 * Pre-allocated completion events, dispatched repeatedly on the read/write
+	 * paths instead of allocating a new event per message
+	 */
+	final AfxFsmEvent readCompleteEvent = new AfxFsmEvent(AfxFsmEvent.READ_COMPLETE, this);
+	final AfxFsmEvent readFailureEvent = new AfxFsmEvent(AfxFsmEvent.READ_FAILURE, this);
+	final AfxFsmEvent writeCompleteEvent = new AfxFsmEvent(AfxFsmEvent.WRITE_COMPLETE, this);
+	final AfxFsmEvent writeFailureEvent = new AfxFsmEvent(AfxFsmEvent.WRITE_FAILURE, this);
+
+	/**
+	 * Messages queued via queueWrite() and not yet written
+	 */
+	final AfxOutboundQueue outboundQueue;
+
+	/**
+	 * Watermarks on the bytes pending in the outbound queue, guarded by the
+	 * lock on this connection
+	 */
+	private long lowWatermark = DEFAULT_LOW_WATERMARK;
+	private long highWatermark = DEFAULT_HIGH_WATERMARK;
+
+	/**
+	 * Whether the connection is writable, and the number of changes not yet
+	 * reported to the handler, both changed while holding the lock on this
+	 * connection, the latter collected without it by the FSM dispatch thread
+	 */
+	private volatile boolean writable = true;
+	private final AtomicInteger writabilityChanges = new AtomicInteger();
+
+	/**
+	 * Queued writes completed/failed but not yet reported, and whether a
+	 * QUEUED_WRITE_COMPLETE event is on its way to report them
+	 */
+	final AfxFsmEvent queuedWriteCompleteEvent = new AfxFsmEvent(AfxFsmEvent.QUEUED_WRITE_COMPLETE, this);
+	final AtomicInteger queuedWritesCompleted = new AtomicInteger();
+	final AtomicInteger queuedWritesFailed = new AtomicInteger();
+	final AtomicBoolean queuedWriteEventPending = new AtomicBoolean();
+
+	/**
+	 * Buffers leased from the pool on behalf of the application, by identity
+	 */
+	private final Set<ByteBuffer> leasedBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * Number of events queued to the FSM domain for this connection but not
+	 * yet processed
+	 */
+	final AtomicInteger queuedEvents = new AtomicInteger();
+
+	/**
+	 * Held while executing an FSM transition of this connection, so that the
+	 * transitions run one at a time whichever thread executes them. Never
+	 * acquired while holding the lock on this (or any other) connection.
+	 */
+	final Object transitionLock = new Object();
+
+	/**
+	 * Traffic counters of this connection, rolled up into those of the domain
+	 */
+	final AfxTrafficMonitor traffic;
+
+	/**
+	 * Configured timeouts and their wheel entries, created on first use, by
+	 * kind of timeout, guarded by the lock on this connection
+	 */
+	private final long[] timeoutsMs = new long[4];
+	private final AfxTimeout[] timeouts = new AfxTimeout[4];
+
+	/**
+	 * When the connection was last ready for I/O, for the idle timeout
+	 */
+	private volatile long lastActivityMs;
+
+	/**
+	 * Completion of the ongoing closeAsync(), guarded by the lock on this
+	 * connection
+	 */
+	private AfxCompletion<AfxConnection> closeCompletion;
+
 	/**
 	 * Handler of connection events
 	 */
@@ -252,6 +1199,11 @@ public abstract class AfxConnection implements FsmContext {
 	@SuppressWarnings("ProtectedField")
 	protected AfxEventHandler writeEventHandler = null;
 
+	/**
+	 * Handler of queued write events
+	 */
+	volatile AfxEventHandler queuedWriteEventHandler = null;
+
 	/**
 	 * Current state of the connection
 	 */
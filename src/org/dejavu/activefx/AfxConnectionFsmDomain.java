@@ -2,9 +2,11 @@
 package org.dejavu.activefx;
 
 import org.dejavu.fsm.FsmAction;
+import org.dejavu.fsm.FsmContext;
 import org.dejavu.fsm.FsmEvent;
 import org.dejavu.fsm.FsmDomain;
 import org.dejavu.fsm.FsmException;
+import org.dejavu.fsm.FsmState;
 import org.dejavu.util.DjvLogMsg.Category;
 import org.dejavu.util.DjvSystem;
 
@@ -32,7 +34,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		addTransition(AfxFsmEvent.OPEN, AFX_CLOSED, AFX_OPENNING, null, methodInitiateOpen);
 		addTransition(AfxFsmEvent.CLOSE, AFX_OPENNING, AFX_CLOSING, null, methodAbortHandshake);
 		addTransition(AfxFsmEvent.HANDSHAKE, AFX_OPENNING, AFX_OPENNING, null, methodHandleHandshake);
-		addTransition(AfxFsmEvent.CLOSE, AFX_CLOSED, AFX_CLOSED, null, null);
+		addTransition(AfxFsmEvent.CLOSE, AFX_CLOSED, AFX_CLOSED, null, methodCloseComplete);
 		addTransition(AfxFsmEvent.OPEN_COMPLETE, AFX_OPENNING, AFX_IDLE, null, methodOpenComplete);
 		addTransition(AfxFsmEvent.OPEN_FAILURE, AFX_IDLE, AFX_CLOSING, null, methodOpenFailed);
 		addTransition(AfxFsmEvent.READ, AFX_IDLE, AFX_READING, methodReadGuard, methodInitiateRead);
@@ -51,10 +53,28 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		addTransition(AfxFsmEvent.WRITE_COMPLETE, AFX_READ_WRITE, AFX_READING, null, methodWriteComplete);
 		addTransition(AfxFsmEvent.READ_FAILURE, AFX_READ_WRITE, AFX_WRITING, null, methodReadFailed);
 		addTransition(AfxFsmEvent.WRITE_FAILURE, AFX_READ_WRITE, AFX_READING, null, methodWriteFailed);
-		addTransition(AfxFsmEvent.CLOSE, AFX_READ_WRITE, AFX_IDLE, null, methodReadWriteFailed);
-		addTransition(AfxFsmEvent.CLOSE_COMPLETE, AFX_CLOSING, AFX_CLOSED, null, null);
+		addTransition(AfxFsmEvent.CLOSE, AFX_READ_WRITE, AFX_CLOSING, null, methodReadWriteFailed);
+		addTransition(AfxFsmEvent.CLOSE_COMPLETE, AFX_CLOSING, AFX_CLOSED, null, methodCloseComplete);
 		addTransition(AfxFsmEvent.CLOSE, AFX_CLOSING, AFX_CLOSING, null, null);
 		addTransition(AfxFsmEvent.CONNECT, AFX_CLOSED, AFX_OPENNING, null, methodInitiateConnect);
+		addTransition(AfxFsmEvent.READ_STREAM, AFX_IDLE, AFX_READING, methodReadStreamGuard, methodInitiateRead);
+		addTransition(AfxFsmEvent.READ_STREAM, AFX_WRITING, AFX_READ_WRITE, methodReadStreamGuard, methodInitiateRead);
+		addTransition(AfxFsmEvent.SEND_FILE, AFX_IDLE, AFX_WRITING, methodSendFileGuard, methodInitiateWrite);
+		addTransition(AfxFsmEvent.SEND_FILE, AFX_READING, AFX_READ_WRITE, methodSendFileGuard, methodInitiateWrite);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_IDLE, AFX_IDLE, null, methodQueuedWriteComplete);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_READING, AFX_READING, null, methodQueuedWriteComplete);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_WRITING, AFX_WRITING, null, methodQueuedWriteComplete);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_READ_WRITE, AFX_READ_WRITE, null, methodQueuedWriteComplete);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_CLOSED, AFX_CLOSED, null, methodQueuedWriteComplete);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_CLOSING, AFX_CLOSING, null, methodQueuedWriteComplete);
+		addTransition(AfxFsmEvent.QUEUED_WRITE_COMPLETE, AFX_OPENNING, AFX_OPENNING, null, methodQueuedWriteComplete);
+	}
+
+	@Override
+	public void run() {
+		// Acquires and releases buffers on behalf of the transitions
+		AfxBufferPool.enableThreadCache();
+		super.run();
 	}
 
 	@Override
@@ -67,10 +87,34 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		return false;
 	}
 
+	/**
+	 * Delivers a queued event while holding the target connection's transition
+	 * lock, so that it never runs concurrently with a completion event
+	 * executed inline by a reactor thread. Also accounts for the event no
+	 * longer being pending for the connection.
+	 */
+	@Override
+	protected boolean handleQueuedEvent(FsmEvent event) throws InterruptedException {
+		FsmContext context = event.getContext();
+		if (context instanceof AfxConnection) {
+			AfxConnection connection = (AfxConnection) context;
+			try {
+				synchronized (connection.transitionLock) {
+					return handleEvent(event);
+				}
+			} finally {
+				connection.queuedEvents.decrementAndGet();
+			}
+		}
+		return handleEvent(event);
+	}
+
 	private static final HandleHandshake methodHandleHandshake = new HandleHandshake();
 	private static final AbortHandshake methodAbortHandshake = new AbortHandshake();
 	private static final ReadGuard methodReadGuard = new ReadGuard();
+	private static final ReadStreamGuard methodReadStreamGuard = new ReadStreamGuard();
 	private static final WriteGuard methodWriteGuard = new WriteGuard();
+	private static final SendFileGuard methodSendFileGuard = new SendFileGuard();
 	private static final InitiateClose methodInitiateClose = new InitiateClose();
 	private static final InitiateOpen methodInitiateOpen = new InitiateOpen();
 	private static final InitiateRead methodInitiateRead = new InitiateRead();
@@ -83,6 +127,8 @@ class AfxConnectionFsmDomain extends FsmDomain {
 	private static final WriteFailed methodWriteFailed = new WriteFailed();
 	private static final ReadWriteFailed methodReadWriteFailed = new ReadWriteFailed();
 	private static final InitiateConnect methodInitiateConnect = new InitiateConnect();
+	private static final QueuedWriteComplete methodQueuedWriteComplete = new QueuedWriteComplete();
+	private static final CloseComplete methodCloseComplete = new CloseComplete();
 
 	public static final AfxConnectionState AFX_CLOSED = new AfxConnectionState("AFX_CLOSED", null, null);
 	public static final AfxConnectionState AFX_CLOSING = new AfxConnectionState("AFX_CLOSING", methodInitiateClose, null);
@@ -92,6 +138,17 @@ class AfxConnectionFsmDomain extends FsmDomain {
 	public static final AfxConnectionState AFX_WRITING = new AfxConnectionState("AFX_WRITING", null, null);
 	public static final AfxConnectionState AFX_READ_WRITE = new AfxConnectionState("AFX_READ_WRITE", null, null);
 
+	/**
+	 * Determines whether a state is one in which the connection is open, i.e.
+	 * can accept read/write requests.
+	 *
+	 * @param state The state to check.
+	 * @return True if the state is an open one, false otherwise.
+	 */
+	static boolean isOpenState(FsmState state) {
+		return (state == AFX_IDLE) || (state == AFX_READING) || (state == AFX_WRITING) || (state == AFX_READ_WRITE);
+	}
+
 	private static class ReadGuard implements FsmAction {
 
 		@Override
@@ -101,6 +158,15 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		}
 	}
 
+	private static class ReadStreamGuard implements FsmAction {
+
+		@Override
+		public boolean handleEvent(FsmEvent event) {
+			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			return thisConnection.readStreamGuard(event);
+		}
+	}
+
 	private static class WriteGuard implements FsmAction {
 
 		@Override
@@ -110,11 +176,21 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		}
 	}
 
+	private static class SendFileGuard implements FsmAction {
+
+		@Override
+		public boolean handleEvent(FsmEvent event) {
+			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			return thisConnection.sendFileGuard(event);
+		}
+	}
+
 	private static class InitiateOpen implements FsmAction {
 
 		@Override
 		public boolean handleEvent(FsmEvent event) throws InterruptedException {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.startTimeout(AfxConnection.TIMEOUT_CONNECT);
 			thisConnection.initiateOpen(event);
 			return true;
 		}
@@ -145,6 +221,10 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_CONNECT);
+			thisConnection.recordActivity(AfxReactor.currentTimeMs());
+			thisConnection.startTimeout(AfxConnection.TIMEOUT_IDLE);
+			thisConnection.traffic.opened();
 			thisConnection.openComplete(event);
 			return true;
 		}
@@ -155,7 +235,12 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) throws InterruptedException {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeouts();
 			thisConnection.initiateClose(event);
+
+			// Report the queued writes failed by the closing, without holding
+			// the lock on the connection
+			thisConnection.queuedWriteComplete(null);
 			return true;
 		}
 	}
@@ -165,6 +250,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) throws InterruptedException {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.startTimeout(AfxConnection.TIMEOUT_READ);
 			thisConnection.initiateRead(event);
 			return true;
 		}
@@ -175,6 +261,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.startTimeout(AfxConnection.TIMEOUT_WRITE);
 			thisConnection.initiateWrite(event);
 			return true;
 		}
@@ -185,6 +272,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_READ);
 			thisConnection.readComplete(event);
 			return true;
 		}
@@ -195,6 +283,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_READ);
 			thisConnection.readFailed(event);
 			return true;
 		}
@@ -217,6 +306,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_WRITE);
 			thisConnection.writeComplete(event);
 			return true;
 		}
@@ -227,6 +317,7 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_WRITE);
 			thisConnection.writeFailed(event);
 			return true;
 		}
@@ -237,6 +328,8 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_READ);
+			thisConnection.stopTimeout(AfxConnection.TIMEOUT_WRITE);
 			thisConnection.readWriteFailed(event);
 			return true;
 		}
@@ -247,9 +340,30 @@ class AfxConnectionFsmDomain extends FsmDomain {
 		@Override
 		public boolean handleEvent(FsmEvent event) throws InterruptedException {
 			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.startTimeout(AfxConnection.TIMEOUT_CONNECT);
 			thisConnection.initiateConnect(event);
 			return true;
 		}
 	}
 
+	private static class QueuedWriteComplete implements FsmAction {
+
+		@Override
+		public boolean handleEvent(FsmEvent event) {
+			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.queuedWriteComplete(event);
+			return true;
+		}
+	}
+
+	private static class CloseComplete implements FsmAction {
+
+		@Override
+		public boolean handleEvent(FsmEvent event) {
+			AfxConnection thisConnection = (AfxConnection) event.getContext();
+			thisConnection.closeComplete(event);
+			return true;
+		}
+	}
+
 }
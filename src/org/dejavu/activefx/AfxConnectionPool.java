@@ -0,0 +1,680 @@
+package org.dejavu.activefx;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.dejavu.util.DjvExceptionUtil;
+import org.dejavu.util.DjvLogMsg.Category;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * Client side pool of open connections, keyed by remote endpoint, so that
+ * request/response clients reuse connections instead of paying the connect
+ * (and TLS handshake) for every request.
+ * <p>
+ * Borrowing never blocks: borrow() hands out an idle connection, in the
+ * AFX_IDLE state, or null if none is idle, while borrowAsync() completes once
+ * one is available. Borrowed connections must be given back with release()
+ * once idle again, or invalidate() if no longer usable.
+ * <p>
+ * A maintenance timer keeps at least the minimum number of connections open
+ * per endpoint, closes the connections idle for too long beyond that minimum,
+ * and checks the liveness of the idle ones: each idle connection has a
+ * streaming read posted on it, so that a peer closing it (or sending anything
+ * unsolicited) is noticed, and the connection dropped, right away. That read
+ * is ended before the connection is handed out.
+ */
+public class AfxConnectionPool {
+
+	/**
+	 * Creates the connections of the pool, e.g. AfxConnectionTcp or
+	 * AfxConnectionTLS instances.
+	 */
+	public interface ConnectionFactory {
+
+		/**
+		 * Creates a new connection, not yet open.
+		 *
+		 * @param domain The domain of the pool.
+		 * @return The new connection.
+		 * @throws AfxException Failed to create the connection.
+		 */
+		AfxConnection newConnection(AfxDomain domain) throws AfxException;
+	}
+
+	/**
+	 * Creates a connection pool, not yet started.
+	 *
+	 * @param name The name of the pool.
+	 * @param domain The domain of the pooled connections.
+	 * @param factory Creates the pooled connections.
+	 */
+	public AfxConnectionPool(String name, AfxDomain domain, ConnectionFactory factory) {
+		this.name = name;
+		this.domain = domain;
+		this.factory = factory;
+	}
+
+	/**
+	 * Specifies the number of connections kept open to each endpoint in use,
+	 * idle or not.
+	 *
+	 * @param value The minimum number of connections per endpoint.
+	 * @return This object.
+	 */
+	public synchronized AfxConnectionPool setMinConnections(int value) {
+		minConnections = value;
+		return this;
+	}
+
+	/**
+	 * Specifies the maximum number of connections to each endpoint, counting
+	 * the idle, borrowed and opening ones.
+	 *
+	 * @param value The maximum number of connections per endpoint.
+	 * @return This object.
+	 */
+	public synchronized AfxConnectionPool setMaxConnections(int value) {
+		maxConnections = value;
+		return this;
+	}
+
+	/**
+	 * Specifies how long a connection may stay idle in the pool before being
+	 * closed, unless needed to keep the minimum number of connections.
+	 *
+	 * @param value The idle time in milliseconds, zero or negative for no
+	 * limit.
+	 * @return This object.
+	 */
+	public synchronized AfxConnectionPool setMaxIdleMs(long value) {
+		maxIdleMs = value;
+		return this;
+	}
+
+	/**
+	 * Specifies the connect timeout of the connections opened by the pool, see
+	 * AfxConnection.setConnectTimeout().
+	 *
+	 * @param value The timeout in milliseconds, zero for none.
+	 * @return This object.
+	 */
+	public synchronized AfxConnectionPool setConnectTimeout(long value) {
+		connectTimeoutMs = value;
+		return this;
+	}
+
+	/**
+	 * Starts the maintenance of the pool.
+	 *
+	 * @param intervalMs How often to evict, check and replenish the
+	 * connections, in milliseconds.
+	 */
+	public synchronized void start(long intervalMs) {
+		if ((intervalMs > 0) && (null == timer) && !stopped) {
+			timer = new Timer(name + "Pool", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						maintain();
+					} catch (InterruptedException e) {
+						cancel();
+					} catch (RuntimeException e) {
+						DjvSystem.logError(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+					}
+				}
+			}, intervalMs, intervalMs);
+		}
+	}
+
+	/**
+	 * Stops the pool, closing all idle connections. Borrowed connections are
+	 * closed as they are released, and pending borrowAsync() fail. A stopped
+	 * pool cannot be restarted.
+	 */
+	public void stop() {
+		List<Member> toClose = new ArrayList<>();
+		List<CompletableFuture<AfxConnection>> toFail = new ArrayList<>();
+		synchronized (this) {
+			stopped = true;
+			if (null != timer) {
+				timer.cancel();
+				timer = null;
+			}
+			for (Endpoint endpoint : endpoints.values()) {
+				Member member;
+				while (null != (member = endpoint.idle.pollFirst())) {
+					removeMember(member);
+					toClose.add(member);
+				}
+				toFail.addAll(endpoint.waiters);
+				endpoint.waiters.clear();
+			}
+		}
+		for (Member member : toClose) {
+			member.connection.close();
+		}
+		for (CompletableFuture<AfxConnection> waiter : toFail) {
+			waiter.completeExceptionally(new AfxException("Pool " + name + " stopped"));
+		}
+	}
+
+	/**
+	 * Borrows an idle connection to an endpoint, without blocking. If none is
+	 * idle, a new connection is opened in the background, room permitting, to
+	 * be borrowed later.
+	 *
+	 * @param remoteIpAddr IP address or host name of the server
+	 * @param remoteIpPort Server port.
+	 * @return A connection in the AFX_IDLE state, or null if none is
+	 * available.
+	 * @throws InterruptedException User interruption
+	 */
+	public AfxConnection borrow(String remoteIpAddr, int remoteIpPort) throws InterruptedException {
+		return acquire(remoteIpAddr, remoteIpPort, null);
+	}
+
+	/**
+	 * Borrows a connection to an endpoint, once one is available, i.e. right
+	 * away if one is idle, otherwise once a new one is open (room permitting)
+	 * or another one is released. The stage is completed by whichever thread
+	 * makes the connection available, possibly an FSM thread, see
+	 * AfxConnection.openAsync().
+	 *
+	 * @param remoteIpAddr IP address or host name of the server
+	 * @param remoteIpPort Server port.
+	 * @return The stage completed with a connection in the AFX_IDLE state.
+	 * Completed exceptionally if the pool is stopped, or an attempt to open a
+	 * connection to the endpoint failed.
+	 * @throws InterruptedException User interruption
+	 */
+	public CompletionStage<AfxConnection> borrowAsync(String remoteIpAddr, int remoteIpPort) throws InterruptedException {
+		CompletableFuture<AfxConnection> waiter = new CompletableFuture<>();
+		AfxConnection connection = acquire(remoteIpAddr, remoteIpPort, waiter);
+		if (null != connection) {
+			waiter.complete(connection);
+		}
+		return waiter;
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool. Connections no longer in
+	 * the AFX_IDLE state, e.g. with a read still pending, are closed instead.
+	 *
+	 * @param connection The connection to release.
+	 */
+	public void release(AfxConnection connection) {
+		Member member;
+		boolean reusable;
+		synchronized (this) {
+			member = members.get(connection);
+			if ((null == member) || (Member.BORROWED != member.state)) {
+				DjvSystem.logWarning(Category.DESIGN, connection + " not borrowed from " + this);
+				return;
+			}
+			reusable = !stopped && (connection.getCurrentState() == AfxConnectionFsmDomain.AFX_IDLE);
+			if (!reusable) {
+				removeMember(member);
+			}
+		}
+
+		if (reusable) {
+			offer(member);
+		} else {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Drops a borrowed connection from the pool, and closes it, e.g. after
+	 * it failed.
+	 *
+	 * @param connection The connection to invalidate.
+	 */
+	public void invalidate(AfxConnection connection) {
+		synchronized (this) {
+			Member member = members.get(connection);
+			if (null != member) {
+				removeMember(member);
+			}
+		}
+		connection.close();
+	}
+
+	/**
+	 * Retrieves the number of idle connections to an endpoint.
+	 *
+	 * @param remoteIpAddr IP address or host name of the server
+	 * @param remoteIpPort Server port.
+	 * @return The number of idle connections.
+	 */
+	public synchronized int getIdleCount(String remoteIpAddr, int remoteIpPort) {
+		Endpoint endpoint = endpoints.get(InetSocketAddress.createUnresolved(remoteIpAddr, remoteIpPort));
+		return null != endpoint ? endpoint.idle.size() : 0;
+	}
+
+	/**
+	 * Retrieves the number of connections to an endpoint, idle, borrowed or
+	 * opening.
+	 *
+	 * @param remoteIpAddr IP address or host name of the server
+	 * @param remoteIpPort Server port.
+	 * @return The number of connections.
+	 */
+	public synchronized int getSize(String remoteIpAddr, int remoteIpPort) {
+		Endpoint endpoint = endpoints.get(InetSocketAddress.createUnresolved(remoteIpAddr, remoteIpPort));
+		return null != endpoint ? endpoint.size : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AfxConnectionPool:{name:" + name + ", endpoints:" + endpoints.values() + ", min:" + minConnections + ", max:" + maxConnections + ", maxIdleMs:" + maxIdleMs + ", stopped:" + stopped + "}";
+	}
+
+	/**
+	 * Takes an idle connection, or failing that registers a waiter (if any),
+	 * and opens a new connection room permitting.
+	 *
+	 * @param waiter The waiter to register if no connection is idle, null for
+	 * none.
+	 * @return The connection taken, in the AFX_IDLE state, null if none.
+	 */
+	private AfxConnection acquire(String remoteIpAddr, int remoteIpPort, CompletableFuture<AfxConnection> waiter) throws InterruptedException {
+		while (true) {
+			Member member;
+			Endpoint endpoint;
+			boolean grow = false;
+			synchronized (this) {
+				if (stopped) {
+					if (null != waiter) {
+						waiter.completeExceptionally(new AfxException("Pool " + name + " stopped"));
+					}
+					return null;
+				}
+
+				InetSocketAddress key = InetSocketAddress.createUnresolved(remoteIpAddr, remoteIpPort);
+				endpoint = endpoints.get(key);
+				if (null == endpoint) {
+					endpoint = new Endpoint(remoteIpAddr, remoteIpPort);
+					endpoints.put(key, endpoint);
+				}
+
+				member = endpoint.idle.pollFirst();
+				if (null != member) {
+					member.state = Member.BORROWED;
+				} else {
+					if (null != waiter) {
+						endpoint.waiters.addLast(waiter);
+					}
+					if (endpoint.size < maxConnections) {
+						++endpoint.size;
+						grow = true;
+					}
+				}
+			}
+
+			if (null == member) {
+				if (grow) {
+					openMember(endpoint);
+				}
+				return null;
+			}
+
+			// Stop watching, the connection must then be idle
+			int outcome = member.unwatch();
+			if (Member.AVAILABLE == outcome) {
+				return member.connection;
+			}
+			if (Member.UNUSABLE == outcome) {
+				invalidate(member.connection);
+			}
+			// Otherwise offered again once the watching read ends
+		}
+	}
+
+	/**
+	 * Makes a connection available, to the first waiter if any, otherwise to
+	 * the idle list.
+	 *
+	 * @param member The connection, in the AFX_IDLE state.
+	 */
+	private void offer(Member member) {
+		while (true) {
+			CompletableFuture<AfxConnection> waiter;
+			synchronized (this) {
+				if (Member.CLOSED == member.state) {
+					return;
+				}
+				waiter = member.endpoint.waiters.pollFirst();
+				if (null == waiter) {
+					member.state = Member.IDLE;
+					member.idleSinceMs = AfxReactor.currentTimeMs();
+					member.endpoint.idle.addFirst(member);
+					return;
+				}
+				member.state = Member.BORROWED;
+			}
+
+			if (waiter.complete(member.connection)) {
+				return;
+			}
+			// Waiter gave up already, try the next one
+		}
+	}
+
+	/**
+	 * Opens a new connection to an endpoint, room for which had already been
+	 * accounted for.
+	 *
+	 * @param endpoint The endpoint to connect to.
+	 */
+	private void openMember(Endpoint endpoint) throws InterruptedException {
+		Member member = null;
+		String cause;
+		try {
+			AfxConnection connection = factory.newConnection(domain);
+			long timeoutMs;
+			synchronized (this) {
+				member = new Member(endpoint, connection);
+				members.put(connection, member);
+				timeoutMs = connectTimeoutMs;
+			}
+			connection.setConnectTimeout(timeoutMs);
+			if (connection.open(endpoint.host, endpoint.port, member)) {
+				return;
+			}
+			cause = "Open rejected";
+		} catch (AfxException e) {
+			cause = e.getMessage();
+		}
+		openFailed(endpoint, member, cause);
+	}
+
+	/**
+	 * Accounts for a failed attempt to open a connection, failing the oldest
+	 * waiter for the endpoint.
+	 *
+	 * @param endpoint The endpoint.
+	 * @param member The connection that failed to open, null if it could not
+	 * even be created.
+	 * @param cause Description of the failure.
+	 */
+	private void openFailed(Endpoint endpoint, Member member, String cause) {
+		CompletableFuture<AfxConnection> waiter;
+		synchronized (this) {
+			if (null != member) {
+				if (Member.CLOSED == member.state) {
+					return;
+				}
+				removeMember(member);
+			} else {
+				--endpoint.size;
+			}
+			waiter = endpoint.waiters.pollFirst();
+		}
+		DjvSystem.logWarning(Category.DESIGN, "Failed to open connection to " + endpoint + ": " + cause);
+		if (null != waiter) {
+			waiter.completeExceptionally(new AfxException("Failed to open connection to " + endpoint + ": " + cause));
+		}
+	}
+
+	/**
+	 * Drops a connection from the pool. Must hold the lock.
+	 */
+	private void removeMember(Member member) {
+		if (Member.CLOSED != member.state) {
+			if (Member.IDLE == member.state) {
+				member.endpoint.idle.remove(member);
+			}
+			member.state = Member.CLOSED;
+			--member.endpoint.size;
+			members.remove(member.connection);
+		}
+	}
+
+	/**
+	 * Evicts the connections idle for too long, drops the dead ones, watches
+	 * the newly idle ones, and replenishes each endpoint to the minimum.
+	 * Invoked by the maintenance timer.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	void maintain() throws InterruptedException {
+		List<Member> toClose = new ArrayList<>();
+		List<Member> toWatch = new ArrayList<>();
+		List<Endpoint> toOpen = new ArrayList<>();
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+
+			long nowMs = AfxReactor.currentTimeMs();
+			for (Endpoint endpoint : endpoints.values()) {
+				// Least recently used at the tail
+				Member member;
+				while ((endpoint.size > minConnections) && (0 < maxIdleMs)
+						&& (null != (member = endpoint.idle.peekLast())) && (nowMs - member.idleSinceMs > maxIdleMs)) {
+					removeMember(member);
+					toClose.add(member);
+				}
+
+				for (Iterator<Member> it = endpoint.idle.iterator(); it.hasNext();) {
+					member = it.next();
+					if (!AfxConnectionFsmDomain.isOpenState(member.connection.getCurrentState())) {
+						it.remove();
+						member.state = Member.CLOSED;
+						--endpoint.size;
+						members.remove(member.connection);
+						toClose.add(member);
+					} else if (!member.watched) {
+						toWatch.add(member);
+					}
+				}
+
+				for (int i = endpoint.size; i < Math.min(minConnections, maxConnections); ++i) {
+					++endpoint.size;
+					toOpen.add(endpoint);
+				}
+			}
+		}
+
+		for (Member member : toClose) {
+			member.connection.close();
+		}
+		for (Member member : toWatch) {
+			member.watch();
+		}
+		for (Endpoint endpoint : toOpen) {
+			openMember(endpoint);
+		}
+	}
+
+	/**
+	 * A remote endpoint, and its connections. Guarded by the lock on the pool.
+	 */
+	private static final class Endpoint {
+
+		Endpoint(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		@Override
+		public String toString() {
+			return host + ":" + port + "{size:" + size + ", idle:" + idle.size() + ", waiters:" + waiters.size() + "}";
+		}
+
+		final String host;
+		final int port;
+
+		/**
+		 * Idle connections, most recently released first
+		 */
+		final ArrayDeque<Member> idle = new ArrayDeque<>();
+		final ArrayDeque<CompletableFuture<AfxConnection>> waiters = new ArrayDeque<>();
+
+		/**
+		 * Number of connections, idle, borrowed or opening
+		 */
+		int size;
+	}
+
+	/**
+	 * A pooled connection, and the event handler of its opening and of the
+	 * streaming read watching it while idle.
+	 */
+	private final class Member implements AfxEventHandler {
+
+		static final int OPENING = 0;
+		static final int IDLE = 1;
+		static final int BORROWED = 2;
+		static final int CLOSED = 3;
+
+		static final int AVAILABLE = 0;
+		static final int DEFERRED = 1;
+		static final int UNUSABLE = 2;
+
+		Member(Endpoint endpoint, AfxConnection connection) {
+			this.endpoint = endpoint;
+			this.connection = connection;
+		}
+
+		/**
+		 * Posts the streaming read watching the connection, if still idle.
+		 *
+		 * @throws InterruptedException User interruption
+		 */
+		synchronized void watch() throws InterruptedException {
+			if ((IDLE == state) && !watched && (connection.getCurrentState() == AfxConnectionFsmDomain.AFX_IDLE)) {
+				probe.clear();
+				watched = connection.readStreamNow(probe, this);
+			}
+		}
+
+		/**
+		 * Ends the streaming read watching the connection, if any.
+		 *
+		 * @return AVAILABLE if the connection is now in the AFX_IDLE state,
+		 * DEFERRED if the read only ends once the events still queued for the
+		 * connection are processed, the connection then being offered again,
+		 * UNUSABLE otherwise.
+		 * @throws InterruptedException User interruption
+		 */
+		synchronized int unwatch() throws InterruptedException {
+			if (watched) {
+				watched = false;
+				synchronized (connection.transitionLock) {
+					if (!connection.endReadStreamNow() && (connection.getCurrentState() == AfxConnectionFsmDomain.AFX_READING)) {
+						// Still holding the lock the transition ending the read
+						// needs, so that it sees the hand-over
+						handover = true;
+						return DEFERRED;
+					}
+				}
+			}
+			return ((CLOSED != state) && (connection.getCurrentState() == AfxConnectionFsmDomain.AFX_IDLE)) ? AVAILABLE : UNUSABLE;
+		}
+
+		@Override
+		public void openCompleted() {
+			offer(this);
+		}
+
+		@Override
+		public void openFailed(String theCause) {
+			AfxConnectionPool.this.openFailed(endpoint, this, theCause);
+		}
+
+		@Override
+		public void closed() {
+			synchronized (AfxConnectionPool.this) {
+				removeMember(this);
+			}
+		}
+
+		@Override
+		public void dataAvailable(ByteBuffer buffer) {
+			// Nothing is expected from a pooled connection, not even one being
+			// borrowed, whose borrower would never see the data
+			buffer.position(buffer.limit());
+			DjvSystem.logWarning(Category.DESIGN, "Unsolicited data on pooled " + connection + ", closing");
+			invalidate(connection);
+		}
+
+		@Override
+		public void readCompleted(ByteBuffer returnedBuffer) {
+			// The watching read ended, the connection is being borrowed, or
+			// is offered again if unwatch() could not wait for the end
+			if (handover) {
+				handover = false;
+				offer(this);
+			}
+		}
+
+		@Override
+		public void readFailed() {
+			// Most likely closed by the peer
+			invalidate(connection);
+		}
+
+		@Override
+		public String toString() {
+			return "Member:{" + connection + "}";
+		}
+
+		final Endpoint endpoint;
+		final AfxConnection connection;
+
+		/**
+		 * One of OPENING, IDLE, BORROWED or CLOSED, changed while holding the
+		 * lock on the pool
+		 */
+		volatile int state = OPENING;
+
+		/**
+		 * When the connection was last released, guarded by the lock on the
+		 * pool
+		 */
+		long idleSinceMs;
+
+		/**
+		 * Whether the watching read is posted, guarded by the lock on this
+		 * member, read without it by the maintenance as a mere hint
+		 */
+		boolean watched;
+
+		/**
+		 * Whether the connection is to be offered again once the watching read
+		 * ends, guarded by the transition lock of the connection
+		 */
+		boolean handover;
+		private final ByteBuffer probe = ByteBuffer.allocate(16);
+	}
+
+	private final String name;
+	private final AfxDomain domain;
+	private final ConnectionFactory factory;
+
+	/**
+	 * Pool configuration and content, guarded by the lock on this pool
+	 */
+	private int minConnections = 0;
+	private int maxConnections = 8;
+	private long maxIdleMs = 60000;
+	private long connectTimeoutMs = 0;
+	private final Map<InetSocketAddress, Endpoint> endpoints = new HashMap<>();
+	private final Map<AfxConnection, Member> members = new IdentityHashMap<>();
+	private Timer timer;
+	private boolean stopped;
+}
@@ -6,48 +6,197 @@ import org.dejavu.util.DjvExceptionUtil;
 import org.dejavu.util.DjvLogMsg.Category;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import org.dejavu.util.DjvSystem;
 import org.dejavu.netutil.DjvSocketSslFactory;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Active FX TLS connection, either the client side of a connection to a
+ * server, or the server side of a connection accepted from a client (see
+ * AfxAcceptor.setSslContext()).
+ */
 public class AfxConnectionTLS extends AfxConnectionTcp {
 
-	private final SSLEngine sslEngine;
+	private SSLEngine sslEngine;
 	private final int minAppBufferSize;
 	private final int minNetBufferSize;
-	private final ByteBuffer outNetBuffer;
+	private ByteBuffer outNetBuffer;
 
+	/**
+	 * Creates a client mode TLS connection, using the SSL context of the
+	 * default DjvSocketSslFactory, and resuming sessions from the default
+	 * session cache.
+	 *
+	 * @param domain The AFX domain.
+	 * @throws SSLException Failed to load the default SSL context.
+	 */
 	public AfxConnectionTLS(AfxDomain domain) throws SSLException {
+		this(domain, getDefaultSessionCache());
+	}
+
+	/**
+	 * Creates a client mode TLS connection, resuming sessions from the given
+	 * cache, which also records whether they were.
+	 *
+	 * @param domain The AFX domain.
+	 * @param sessionCache The session cache, shared by the connections to the
+	 * same servers.
+	 */
+	public AfxConnectionTLS(AfxDomain domain, AfxTlsSessionCache sessionCache) {
+		this(domain, sessionCache.getSslContext(), sessionCache, true);
+	}
+
+	/**
+	 * Creates a TLS connection.
+	 *
+	 * @param domain The AFX domain.
+	 * @param sslContext The SSL context to create the engine from, e.g. that
+	 * of a DjvSocketSslFactory. Server mode requires it to hold a key, and
+	 * sessions are resumed from its session caches.
+	 * @param clientMode True for the client side, which initiates the
+	 * handshake, false for the server side of an accepted connection.
+	 */
+	public AfxConnectionTLS(AfxDomain domain, SSLContext sslContext, boolean clientMode) {
+		this(domain, sslContext, null, clientMode);
+	}
+
+	private AfxConnectionTLS(AfxDomain domain, SSLContext sslContext, AfxTlsSessionCache sessionCache, boolean clientMode) {
 		super(domain);
 
-		if (null == gSslContext) {
-			gSslContext = DjvSocketSslFactory.getInstance().getSslContext();
-		}
+		this.sslContext = sslContext;
+		this.sessionCache = sessionCache;
 
-		sslEngine = gSslContext.createSSLEngine();
-		sslEngine.setUseClientMode(true);
+		// A client engine is created again with the identity of the peer once
+		// known, so that its sessions can be resumed
+		sslEngine = sslContext.createSSLEngine();
+		sslEngine.setUseClientMode(clientMode);
 
 		SSLSession session = sslEngine.getSession();
 		minAppBufferSize = session.getApplicationBufferSize();
 		minNetBufferSize = session.getPacketBufferSize();
 
-		outNetBuffer = ByteBuffer.allocateDirect(minNetBufferSize);
+		acquireBuffers();
+	}
+
+	/**
+	 * Leases the buffers of this connection from the pool, given back when
+	 * the connection closes, and leased again if it is reopened. Must hold the
+	 * lock on this connection, or be constructing it.
+	 */
+	private void acquireBuffers() {
+		AfxBufferPool pool = domain.getBufferPool();
+		outNetBuffer = pool.acquire(minNetBufferSize);
 		outNetBuffer.position(outNetBuffer.limit()); // Empty buffer
+		netBuffers[0] = outNetBuffer;
 
-		inNetBuffer = ByteBuffer.allocateDirect(minNetBufferSize);
+		inNetBuffer = pool.acquire(minNetBufferSize);
 		inNetBuffer.position(inNetBuffer.limit()); // Empty buffer
 
 		// The reason we have to add some extra room in here is that unwrap
 		// looks for at least m_MinAppBufferSize remaining on the destination
-		// buffer before proceeding, which is completely stupid
-		inAppBuffer = ByteBuffer.allocate(minAppBufferSize + 10240);
+		// buffer before proceeding, which is completely stupid. The pool
+		// rounds up to its next size class anyway, so this costs nothing.
+		inAppBuffer = pool.acquire(minAppBufferSize + 10240);
 		inAppBuffer.position(inAppBuffer.limit()); // Empty buffer
+		buffersReleased = false;
+	}
+
+	/**
+	 * Prepares a closed connection for being opened or connected again: its
+	 * buffers went back to the pool and its engine is closed, so both are
+	 * replaced, and no read is in progress. A client engine is replaced once
+	 * the peer is identified. Must hold the lock on this connection.
+	 */
+	private void prepareReopen() {
+		readindMode = false;
+		if (buffersReleased) {
+			acquireBuffers();
+			if (!sslEngine.getUseClientMode()) {
+				sslEngine = sslContext.createSSLEngine();
+				sslEngine.setUseClientMode(false);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the session cache of the client connections created with the
+	 * SSL context of the default DjvSocketSslFactory.
+	 *
+	 * @return The default session cache.
+	 * @throws SSLException Failed to load the default SSL context.
+	 */
+	public static synchronized AfxTlsSessionCache getDefaultSessionCache() throws SSLException {
+		if (null == gSessionCache) {
+			if (null == gSslContext) {
+				gSslContext = DjvSocketSslFactory.getInstance().getSslContext();
+			}
+			gSessionCache = new AfxTlsSessionCache(gSslContext);
+		}
+		return gSessionCache;
+	}
+
+	/**
+	 * Configures the server session cache of an SSL context, from which the
+	 * server side of TLS connections resumes the sessions of returning
+	 * clients, sparing them the full handshake.
+	 *
+	 * @param sslContext The SSL context, e.g. that of a DjvSocketSslFactory.
+	 * @param cacheSize The maximum number of sessions cached, zero for no
+	 * limit, negative to leave unchanged.
+	 * @param timeoutSeconds How long a session may be resumed, zero for no
+	 * limit, negative to leave unchanged.
+	 */
+	public static void configureServerSessionCache(SSLContext sslContext, int cacheSize, int timeoutSeconds) {
+		SSLSessionContext sessions = sslContext.getServerSessionContext();
+		if (null == sessions) {
+			DjvSystem.logWarning(Category.DESIGN, "No server session cache in " + sslContext.getProtocol() + " context");
+			return;
+		}
+		if (0 <= cacheSize) {
+			sessions.setSessionCacheSize(cacheSize);
+		}
+		if (0 <= timeoutSeconds) {
+			sessions.setSessionTimeout(timeoutSeconds);
+		}
+	}
+
+	/**
+	 * Determines whether this is the client side of the connection.
+	 *
+	 * @return True if client mode, false if server mode.
+	 */
+	public boolean isClientMode() {
+		return sslEngine.getUseClientMode();
+	}
+
+	/**
+	 * Determines whether the last opening handshake resumed a previous
+	 * session, as told by the session cache of a client connection.
+	 *
+	 * @return True if resumed, false if a full handshake, or unknown.
+	 */
+	public synchronized boolean isSessionResumed() {
+		return sessionResumed;
+	}
+
+	/**
+	 * Retrieves the TLS session of this connection.
+	 *
+	 * @return The session, whose handshake may not be completed yet.
+	 */
+	public synchronized SSLSession getSession() {
+		return sslEngine.getSession();
 	}
 
 	@Override
@@ -56,23 +205,72 @@ public class AfxConnectionTLS extends AfxConnectionTcp {
 	}
 
 	@Override
-	public void initiateClose(FsmEvent evt) {
+	public synchronized void initiateOpen(FsmEvent evt) throws InterruptedException {
+		// The peer identity as given, resolving it would defeat the resumption
+		// of sessions established with the host name
+		AfxFsmEvent afxEvent = (AfxFsmEvent) evt;
+		peerHost = afxEvent.ipAddr;
+		peerPort = afxEvent.ipPort;
+		prepareReopen();
+		super.initiateOpen(evt);
+	}
+
+	@Override
+	public synchronized void initiateConnect(FsmEvent evt) throws InterruptedException {
+		// The peer is identified from the channel, not from an earlier open
+		peerHost = null;
+		prepareReopen();
+		super.initiateConnect(evt);
+	}
+
+	/**
+	 * Not supported for TLS, the data must be encrypted on its way from the
+	 * file to the socket.
+	 *
+	 * @return Always false.
+	 */
+	@Override
+	public boolean sendFile(FileChannel file, long position, long count, AfxEventHandler handler) {
+		DjvSystem.logWarning(Category.DESIGN, "File transfer not supported on TLS connection " + this);
+		return false;
+	}
+
+	@Override
+	boolean sendFileGuard(FsmEvent evt) {
+		DjvSystem.logWarning(Category.DESIGN, "File transfer not supported on TLS connection " + this);
+		return false;
+	}
+
+	@Override
+	public synchronized void initiateClose(FsmEvent evt) throws InterruptedException {
+		failQueuedWrites();
 		closingHandshake();
 	}
 
 	@Override
-	public synchronized void initiateRead(FsmEvent evt) throws InterruptedException {
-		if (!readindMode) {
-			readindMode = true;
-			readIntoBuffer();
-		} else {
-			DjvSystem.logError(Category.DESIGN, "Invoked while already in reading mode at " + DjvExceptionUtil.getCompressedTrace());
+	public void initiateRead(FsmEvent evt) throws InterruptedException {
+		boolean deliver = false;
+		synchronized (this) {
+			if (!readindMode) {
+				readindMode = true;
+				deliver = readIntoBuffer(false);
+			} else {
+				DjvSystem.logError(Category.DESIGN, "Invoked while already in reading mode at " + DjvExceptionUtil.getCompressedTrace());
+			}
+		}
+		if (deliver) {
+			// Left over from the handshake, presented without holding the lock
+			pumpStreamData();
 		}
 	}
 
 	@Override
-	public void initiateWrite(FsmEvent evt) {
-		enableReactorWrite();
+	public synchronized void initiateWrite(FsmEvent evt) {
+		// Unless already notified for the queued writes, or for the records
+		// encrypted from them and not yet written
+		if (!reactorWriteEnabled || (outboundQueue.isEmpty() && !hasNetOutput())) {
+			enableReactorWrite();
+		}
 	}
 
 	@Override
@@ -84,7 +282,7 @@ public class AfxConnectionTLS extends AfxConnectionTcp {
 			} else if (!channel.isConnected()) {
 				throw new ConnectException("not in connect pending state");
 			}
-			openningHanshake();
+			openingHandshake();
 		} catch (ConnectException e) {
 			DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
 			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.OPEN_FAILURE, this, e.getMessage()), true);
@@ -95,29 +293,32 @@ public class AfxConnectionTLS extends AfxConnectionTcp {
 	}
 
 	@Override
-	public void abortHandshake(FsmEvent evt) {
-		synchronized (this) {
-			setHandshakeAborted(true);
-			setHandShakingMode(false);
-			this.notifyAll();
-			openFailed((FsmEvent) null);
-		}
-
+	public synchronized void abortHandshake(FsmEvent evt) {
+		// Delegated tasks still running find the handshake over
+		handshake = Handshake.NONE;
+		openFailed((FsmEvent) null);
 	}
 
 	@Override
-	public void onConnect() throws InterruptedException {
-		domain.deregisterHandler(this, SelectionKey.OP_CONNECT);
+	public synchronized void onConnect() throws InterruptedException {
+		// Registered by initiateOpen(), or by initiateConnect() for a channel
+		// still connecting, not for one accepted, i.e. already connected
+		if (reactorConnectEnabled || ((null != channel) && channel.isConnectionPending())) {
+			domain.deregisterHandler(this, SelectionKey.OP_CONNECT);
+			reactorConnectEnabled = false;
+		}
 		domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.HANDSHAKE, this), true);
 	}
 
 	@Override
 	public void onRead() throws InterruptedException {
+		boolean deliver = false;
 		synchronized (this) {
 			try {
 				if (null != channel) {
 					inNetBuffer.compact();
 					int bytesRead = channel.read(inNetBuffer);
+					traffic.bytesRead(bytesRead);
 					if (0 > bytesRead) {
 						inNetBuffer.flip();
 
@@ -131,81 +332,67 @@ public class AfxConnectionTLS extends AfxConnectionTcp {
 					throw new IOException("Channel is NULL, probably in the middle of shutting down");
 				}
 
-				if (isHandShakingMode()) {
-					this.notifyAll(); // Tells the handshaking thread to continue
+				if (Handshake.OPENING == handshake) {
+					// Re-enabled by the handshake if it needs more
+					disableReactorRead();
+					advanceHandshake();
+				} else if (readindMode) {
+					deliver = readIntoBuffer(true);
 				} else {
-					inAppBuffer.compact();
-					int safety = 10;
-					while (--safety > 0) {
-						SSLEngineResult res = sslEngine.unwrap(inNetBuffer, inAppBuffer);
-
-						if (res.getStatus() == SSLEngineResult.Status.CLOSED) {
-							throw new SSLException("Session closed");
-						} else if (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
-							// No more room to read in
-							DjvSystem.logWarning(Category.DESIGN, "Data coming in faster than being processed");
-							disableReactorRead();
-							break;
-						} else if (res.getStatus() != SSLEngineResult.Status.OK) {
-							// Buffer underflow, done unwrapping
-							break;
-						}
-					}
-					inAppBuffer.flip();
-					readIntoBuffer();
+					// Nobody to take the data, leave it with the channel until
+					// the next read
+					disableReactorRead();
 				}
-			} catch (IOException e) {
+			} catch (IOException | RuntimeException e) {
 				DjvSystem.logInfo(Category.DESIGN, "Closing channel due to " + e.getMessage());
 				disableReactorRead();
-				if (isHandShakingMode()) {
-					setHandshakeAborted(true);
-					AfxConnectionTLS.this.notifyAll();
+				if (Handshake.OPENING == handshake) {
+					failHandshake(e);
 				} else {
 					domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE, this), true);
 				}
 			}
 		}
+		if (deliver) {
+			// Presented without holding the lock on this connection
+			pumpStreamData();
+		}
 	}
 
 	@Override
 	public void onWrite() throws InterruptedException {
 		synchronized (this) {
+			if (null == channel) {
+				// Closed, the buffers may be back in the pool
+				disableReactorWrite();
+				return;
+			}
+
 			try {
-				if (!isHandShakingMode()) {
-					if (m_WriteBuffer.hasRemaining()) {
-						outNetBuffer.compact();
-						SSLEngineResult res = sslEngine.wrap(m_WriteBuffer, outNetBuffer);
-						outNetBuffer.flip();
-
-						if ((res.getStatus() != SSLEngineResult.Status.OK) && (res.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW)) {
-							throw new SSLException("Wrap failed with " + res.getStatus());
-						} else if (!m_WriteBuffer.hasRemaining()) {
-							// Wrote the entire buffer, generate write complete event ...
-							domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_COMPLETE, this), true);
-						}
+				if (Handshake.OPENING == handshake) {
+					if (flushNetBuffer()) {
+						disableReactorWrite();
 					}
+					advanceHandshake();
+					return;
 				}
 
-				if (outNetBuffer.hasRemaining()) {
-					if (0 > channel.write(outNetBuffer)) {
-						throw new IOException("Write failed");
+				// Flush the records already encrypted, then encrypt the next
+				// batch, for as long as the channel takes everything
+				while (flushNetBuffer()) {
+					if (!wrapPendingWrites()) {
+						// No more data to write
+						disableReactorWrite();
+						break;
 					}
-				} else {
-					// No more data to write
-					disableReactorWrite();
 				}
-
-				if (isHandShakingMode()) {
-					AfxConnectionTLS.this.notifyAll(); // Tells the handshaking thread to continue.
-				}
-			} catch (IOException e) {
+			} catch (IOException | RuntimeException e) {
 				DjvSystem.logInfo(Category.DESIGN, "Channel closed due to " + e.getMessage());
 
 				disableReactorWrite();
 
-				if (isHandShakingMode()) {
-					setHandshakeAborted(true);
-					AfxConnectionTLS.this.notifyAll();
+				if (Handshake.OPENING == handshake) {
+					failHandshake(e);
 				} else {
 					domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE, this), true);
 				}
@@ -213,254 +400,696 @@ public class AfxConnectionTLS extends AfxConnectionTcp {
 		}
 	}
 
-	private void readIntoBuffer() throws InterruptedException {
-		if (readindMode) {
-			int inputRemaining = inAppBuffer.remaining();
-			int readRemaining = readBuffer.remaining();
-			if (0 < readRemaining) {
-				int bytes = (inputRemaining > readRemaining) ? readRemaining : inputRemaining;
-				if (0 < bytes) {
-					readBuffer.put(inAppBuffer.array(), inAppBuffer.arrayOffset() + inAppBuffer.position(), bytes);
-					inAppBuffer.position(inAppBuffer.position() + bytes);
-					if (!readBuffer.hasRemaining()) {
-						readindMode = false;
-						domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_COMPLETE, this), true);
+	/**
+	 * Moves decrypted data into the client's read buffer, completing the read
+	 * once the buffer is full, or having it presented to the read handler as it
+	 * goes for a streaming read. Every complete record received is decrypted, for
+	 * as long as the client takes the data: straight into the read buffer
+	 * whenever it has room for a whole record, through the application buffer
+	 * otherwise. More is read in once the records run out. For a streaming
+	 * read, returns as soon as some data is in the read buffer, for the caller
+	 * to present it to the read handler without holding the lock on this
+	 * connection, then carry on with resumeStreamRead(). Must hold the lock on
+	 * this connection.
+	 *
+	 * @param fromReactor Whether invoked by the reactor thread, in which case
+	 * the completion may be executed inline. Otherwise (from within an FSM
+	 * transition) it is always queued.
+	 * @return True if there is streaming data to be presented, false
+	 * otherwise.
+	 * @throws InterruptedException User interruption
+	 */
+	private boolean readIntoBuffer(boolean fromReactor) throws InterruptedException {
+		if (streamDelivering) {
+			// Being presented by another thread, which resumes reading once done
+			disableReactorRead();
+			return false;
+		}
+		try {
+			while (readindMode) {
+				if (inAppBuffer.hasRemaining()) {
+					// Left over from the handshake or a shorter read
+					copyDecrypted(Math.min(inAppBuffer.remaining(), readBuffer.remaining()));
+				} else if (readBuffer.remaining() >= minAppBufferSize) {
+					if (0 == unwrapInbound(readBuffer)) {
+						// No complete record left, need to read in some more
+						enableReactorRead();
+						return false;
+					}
+				} else if (readBuffer.hasRemaining()) {
+					inAppBuffer.compact();
+					try {
+						unwrapInbound(inAppBuffer);
+					} finally {
+						inAppBuffer.flip();
+					}
+					if (!inAppBuffer.hasRemaining()) {
+						enableReactorRead();
+						return false;
 					}
-				} else {
-					// No more data in the network input buffer, need to read in some more
-					enableReactorRead();
 				}
-			} else {
-				readindMode = false;
-				domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_COMPLETE, this), true);
+
+				if (readStreaming) {
+					return true;
+				} else if (!readBuffer.hasRemaining()) {
+					readindMode = false;
+					dispatchReadComplete(fromReactor);
+				}
 			}
+		} catch (SSLException e) {
+			DjvSystem.logInfo(Category.DESIGN, "Closing channel due to " + e.getMessage());
+			disableReactorRead();
+			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE, this), true);
+		}
+		return false;
+	}
+
+	/**
+	 * Copies decrypted data into the client's read buffer.
+	 *
+	 * @param bytes The number of bytes to copy, must be available in both
+	 * buffers.
+	 */
+	private void copyDecrypted(int bytes) {
+		int limit = inAppBuffer.limit();
+		inAppBuffer.limit(inAppBuffer.position() + bytes);
+		readBuffer.put(inAppBuffer);
+		inAppBuffer.limit(limit);
+	}
+
+	@Override
+	synchronized boolean resumeStreamRead() throws InterruptedException {
+		return readIntoBuffer(false);
+	}
+
+	@Override
+	synchronized void endStreamRead() {
+		readindMode = false;
+		disableReactorRead();
+	}
+
+	@Override
+	synchronized void readTimedOut() throws InterruptedException {
+		// The next read starts afresh, see initiateRead()
+		readindMode = false;
+		super.readTimedOut();
+	}
+
+	@Override
+	public void readFailed(FsmEvent evt) {
+		synchronized (this) {
+			readindMode = false;
 		}
+		super.readFailed(evt);
 	}
 
-	private void openningHanshake() {
+	@Override
+	public void readWriteFailed(FsmEvent evt) {
 		synchronized (this) {
-			if (!isHandShakingMode()) {
-				setHandShakingMode(true);
-				setHandshakeDone(false);
-				setHandshakeAborted(false);
-				handshakeThread = new Thread(() -> {
+			readindMode = false;
+		}
+		super.readWriteFailed(evt);
+	}
+
+	/**
+	 * Dispatches the READ_COMPLETE event, inline if possible when invoked by
+	 * the reactor thread.
+	 *
+	 * @param fromReactor Whether invoked by the reactor thread.
+	 * @throws InterruptedException User interruption
+	 */
+	private void dispatchReadComplete(boolean fromReactor) throws InterruptedException {
+		if (fromReactor) {
+			domain.dispatchCompletion(readCompleteEvent);
+		} else {
+			domain.dispatchEvent(readCompleteEvent, true);
+		}
+	}
+
+	/**
+	 * Starts the opening handshake. From then on it is driven by whoever
+	 * makes progress possible: the reactor thread as network data comes in or
+	 * room is made to write, or the task executor as delegated tasks
+	 * complete. Must hold the lock on this connection.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	private void openingHandshake() throws InterruptedException {
+		if (Handshake.NONE != handshake) {
+			DjvSystem.logError(Category.DESIGN, "Already in handshaking mode");
+			return;
+		}
+
+		handshake = Handshake.OPENING;
+		handshakeStartMs = System.currentTimeMillis();
+		sessionResumed = false;
+		try {
+			if (sslEngine.getUseClientMode()) {
+				identifyPeer();
+			}
+			sslEngine.beginHandshake();
+		} catch (IOException | RuntimeException e) {
+			failHandshake(e);
+			return;
+		}
+		driveHandshake();
+	}
+
+	/**
+	 * Creates the client engine again with the identity of the peer, i.e. the
+	 * host and port given to open(), or the remote address of the channel
+	 * given to connect(). Must hold the lock on this connection.
+	 *
+	 * @throws IOException Failed to retrieve the remote address.
+	 */
+	private void identifyPeer() throws IOException {
+		if ((null == peerHost) && (channel.getRemoteAddress() instanceof InetSocketAddress)) {
+			InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+			peerHost = remote.getHostString();
+			peerPort = remote.getPort();
+		}
+		if (null != peerHost) {
+			sslEngine = (null != sessionCache) ? sessionCache.createEngine(peerHost, peerPort) : sslContext.createSSLEngine(peerHost, peerPort);
+			sslEngine.setUseClientMode(true);
+		}
+	}
+
+	/**
+	 * Advances the opening handshake as far as possible, failing it on error.
+	 * Must hold the lock on this connection.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	private void driveHandshake() throws InterruptedException {
+		try {
+			advanceHandshake();
+		} catch (IOException | RuntimeException e) {
+			failHandshake(e);
+		}
+	}
+
+	/**
+	 * Advances the opening handshake as directed by the status of the engine,
+	 * until it either completes, or has to wait for network data, for room to
+	 * write, or for delegated tasks to complete. The messages wrapped are
+	 * accumulated and written at once before waiting, rather than one write
+	 * per message. Must hold the lock on this connection.
+	 *
+	 * @throws IOException Failed to exchange handshake messages.
+	 * @throws InterruptedException User interruption
+	 */
+	private void advanceHandshake() throws IOException, InterruptedException {
+		while ((Handshake.OPENING == handshake) && !tasksPending) {
+			SSLEngineResult res;
+			switch (sslEngine.getHandshakeStatus()) {
+				case NEED_TASK:
+					if (!flushHandshake() || startDelegatedTasks()) {
+						return;
+					}
+					break;
+				case NEED_WRAP:
+					boolean wasEmpty = !hasNetOutput();
+					res = wrapNet(EMPTY_BUFFER);
+					if ((res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) && !wasEmpty) {
+						// Make room for the next message
+						if (!flushHandshake()) {
+							return;
+						}
+					} else if (res.getStatus() == SSLEngineResult.Status.CLOSED) {
+						// The engine gave up, e.g. rejecting the certificate of
+						// the peer, and wrapped the alert telling why: send it
+						// along with anything wrapped before, then fail
+						flushNetBuffer();
+						throw new SSLException("Handshake aborted by the engine");
+					} else if (res.getStatus() != SSLEngineResult.Status.OK) {
+						throw new SSLException("Handshake wrap failed with " + res.getStatus());
+					}
+					break;
+				case FINISHED:
+				case NOT_HANDSHAKING:
+					if (flushHandshake()) {
+						handshakeCompleted();
+					}
+					return;
+				default:
+					// NEED_UNWRAP, keep any application data following the
+					// handshake for the first read
+					inAppBuffer.compact();
 					try {
-						try {
-							sslEngine.beginHandshake();
-							int safety = 100;
-							while ((--safety > 0) && (!isHandshakeAborted()) && (!isHandshakeDone())) {
-								SSLEngineResult.HandshakeStatus stat = sslEngine.getHandshakeStatus();
-								if (stat == SSLEngineResult.HandshakeStatus.NEED_TASK) {
-									Runnable task = sslEngine.getDelegatedTask();
-									if (null != task) {
-										task.run();
-									}
-								} else if (stat == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
-									synchronized (AfxConnectionTLS.this) {
-										inAppBuffer.clear();
-										SSLEngineResult res = sslEngine.unwrap(inNetBuffer, inAppBuffer);
-										if (res.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
-											enableReactorRead();
-											AfxConnectionTLS.this.wait(1000);
-										} else if (res.getStatus() == SSLEngineResult.Status.OK) {
-											if (res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-												setHandshakeDone(true);
-											}
-										} else {
-											throw new SSLException("Failed to wrap due to " + res.getStatus());
-										}
-									}
-								} else if (stat == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
-									synchronized (AfxConnectionTLS.this) {
-										outNetBuffer.compact();
-										SSLEngineResult res = sslEngine.wrap(inAppBuffer, outNetBuffer);
-										outNetBuffer.flip();
-
-										if ((res.getStatus() == SSLEngineResult.Status.OK) || (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)) {
-											if (res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-												setHandshakeDone(true);
-											}
-											enableReactorWrite();
-											AfxConnectionTLS.this.wait(1000);
-										} else {
-											throw new SSLException("Failed to wrap due to " + res.getStatus());
-										}
-									}
-								} else if (stat == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
-									setHandshakeDone(true);
-									break;
-								} else if (stat == SSLEngineResult.HandshakeStatus.FINISHED) {
-									setHandshakeDone(true);
-									break;
-								}
-							}
-
-							setHandShakingMode(false);
-
-							inAppBuffer.clear();
-							inAppBuffer.position(inAppBuffer.limit());
-
-							if (safety == 0) {
-								throw new SSLException("Safety break triggered");
-							} else if (isHandshakeAborted()) {
-								throw new SSLException("Handshake aborted");
-							} else if (isHandshakeDone()) {
-								domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.OPEN_COMPLETE, AfxConnectionTLS.this), true);
-							}
-						} catch (SSLException | RuntimeException e) {
-							DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
-							domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.OPEN_FAILURE, AfxConnectionTLS.this,
-								e.getMessage()), true);
+						res = sslEngine.unwrap(inNetBuffer, inAppBuffer);
+					} finally {
+						inAppBuffer.flip();
+					}
+					if (res.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+						if (flushHandshake()) {
+							enableReactorRead();
 						}
-					} catch(InterruptedException e) {
+						return;
+					} else if (res.getStatus() != SSLEngineResult.Status.OK) {
+						throw new SSLException("Handshake unwrap failed with " + res.getStatus());
 					}
-				});
-				handshakeThread.start();
-			} else {
-				DjvSystem.logError(Category.DESIGN, "Already in handshaking mode");
+					break;
 			}
 		}
 	}
 
-	private void closingHandshake() {
-		synchronized (this) {
-			if (!isHandShakingMode()) {
-				setHandShakingMode(true);
-				setHandshakeDone(false);
-				setHandshakeAborted(false);
-				handshakeThread = new Thread(() -> {
-					try {
-						try {
-							sslEngine.closeOutbound();
-							int safety = 10;
-							while ((--safety > 0) && (!isHandshakeDone()) && (!isHandshakeAborted())) {
-								if (!sslEngine.isOutboundDone()) {
-									outNetBuffer.compact();
-									SSLEngineResult res = sslEngine.wrap(inAppBuffer, outNetBuffer);
-									outNetBuffer.flip();
-									enableReactorWrite();
-									AfxConnectionTLS.this.wait(100);
-									if (res.getStatus() == SSLEngineResult.Status.OK) {
-										if (res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-											break;
-										}
-									}
-								} else if (!sslEngine.isInboundDone()) {
-									inAppBuffer.clear();
-									SSLEngineResult res = sslEngine.unwrap(inNetBuffer, inAppBuffer);
-									if (res.getStatus() == SSLEngineResult.Status.OK) {
-										if (res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-											break;
-										}
-									}
-									enableReactorRead();
-									AfxConnectionTLS.this.wait(100);
-								} else {
-									break;
-								}
-							}
-
-							if (safety == 0) {
-								throw new SSLException("Safety break activated");
-							}
-						} catch (RuntimeException | SSLException e) {
-							DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
-						}
-						
-						setHandShakingMode(false);
-						domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE_COMPLETE, AfxConnectionTLS.this), true);
-						disableReactorRead();
-						disableReactorWrite();
-						
-						if (null != channel) {
-							try {
-								channel.close();
-							} catch (IOException e) {
-								DjvSystem.logError(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
-							}
-							channel = null;
-						}
-						if (null != connectionventHandler) {
-							connectionventHandler.closed();
-						}
-						
-						connectionventHandler = null;
-					} catch(InterruptedException e) {
+	/**
+	 * Writes the handshake messages wrapped so far, waiting for room to write
+	 * if the channel does not take them all. Must hold the lock on this
+	 * connection.
+	 *
+	 * @return True if all written, false if waiting.
+	 * @throws IOException Failed to write.
+	 */
+	private boolean flushHandshake() throws IOException {
+		if (flushNetBuffer()) {
+			return true;
+		}
+		if (!reactorWriteEnabled) {
+			enableReactorWrite();
+		}
+		return false;
+	}
+
+	/**
+	 * Hands the delegated tasks of the engine over to the task executor of
+	 * the domain. Must hold the lock on this connection.
+	 *
+	 * @return True if handed over, in which case the handshake resumes once
+	 * they complete, false if the executor rejected them, in which case they
+	 * were run by the calling thread.
+	 */
+	private boolean startDelegatedTasks() {
+		tasksPending = true;
+		try {
+			domain.getTaskExecutor().execute(() -> {
+				try {
+					runDelegatedTasks();
+				} finally {
+					delegatedTasksDone();
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			tasksPending = false;
+			runDelegatedTasks();
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the delegated tasks of the engine, without holding any lock.
+	 */
+	private void runDelegatedTasks() {
+		Runnable task;
+		while (null != (task = sslEngine.getDelegatedTask())) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// The engine reports the failure on the next wrap/unwrap
+				DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Resumes the opening handshake, once the delegated tasks completed.
+	 * Invoked by the task executor.
+	 */
+	private synchronized void delegatedTasksDone() {
+		tasksPending = false;
+		try {
+			driveHandshake();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Concludes the opening handshake once its last message was written. Must
+	 * hold the lock on this connection.
+	 *
+	 * @throws SSLException Failed to unwrap the data following the handshake.
+	 * @throws InterruptedException User interruption
+	 */
+	private void handshakeCompleted() throws SSLException, InterruptedException {
+		handshake = Handshake.NONE;
+		if ((null != sessionCache) && (null != peerHost)) {
+			sessionResumed = sessionCache.handshakeCompleted(peerHost, peerPort, sslEngine.getSession(), handshakeStartMs);
+		}
+		disableReactorRead();
+		if (reactorWriteEnabled && !hasNetOutput()) {
+			disableReactorWrite();
+		}
+
+		// Records read in along with the last handshake message are
+		// decrypted by the first read
+		domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.OPEN_COMPLETE, this), true);
+	}
+
+	/**
+	 * Fails the opening handshake. Must hold the lock on this connection.
+	 *
+	 * @param cause The reason of the failure.
+	 * @throws InterruptedException User interruption
+	 */
+	private void failHandshake(Exception cause) throws InterruptedException {
+		DjvSystem.logWarning(Category.DESIGN, "Handshake failed on " + this + ": " + DjvExceptionUtil.simpleTrace(cause));
+		handshake = Handshake.NONE;
+		disableReactorRead();
+		disableReactorWrite();
+		domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.OPEN_FAILURE, this, cause.getMessage()), true);
+	}
+
+	/**
+	 * Encrypts the pending writes into the chain of network buffers, the
+	 * single write request first, then the queued messages, until either is
+	 * exhausted or the chain is full. The queued messages are wrapped
+	 * together, so that small ones share a record rather than each getting
+	 * its own. Must hold the lock on this connection.
+	 *
+	 * @return True if anything was written, false if nothing is pending.
+	 * @throws SSLException Failed to wrap.
+	 * @throws InterruptedException User interruption
+	 */
+	private boolean wrapPendingWrites() throws SSLException, InterruptedException {
+		boolean progress = false;
+		int completed = 0;
+		try {
+			while (true) {
+				int count;
+				boolean queued = (null == m_WriteBuffer) || !m_WriteBuffer.hasRemaining();
+				if (queued) {
+					count = outboundQueue.gather(wrapSources);
+					if (0 == count) {
+						break;
 					}
-				});
-				handshakeThread.start();
-			} else {
-				DjvSystem.logError(Category.DESIGN, "Already in handshaking mode");
+				} else {
+					wrapSources[0] = m_WriteBuffer;
+					count = 1;
+				}
+
+				SSLEngineResult res;
+				try {
+					res = wrapNet(count);
+				} finally {
+					Arrays.fill(wrapSources, 0, count, null);
+				}
+				if (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					// The chain is full, wait for it to be flushed
+					break;
+				} else if (res.getStatus() != SSLEngineResult.Status.OK) {
+					throw new SSLException("Wrap failed with " + res.getStatus());
+				}
+
+				if (queued) {
+					// Empty messages complete without anything to wrap
+					int done = outboundQueue.written(res.bytesConsumed());
+					if ((0 == done) && (0 == res.bytesConsumed())) {
+						break;
+					}
+					completed += done;
+				} else if (!m_WriteBuffer.hasRemaining()) {
+					// Wrote the entire buffer, forget it as the client may
+					// reuse it right away, and generate write complete event ...
+					m_WriteBuffer = null;
+					domain.dispatchCompletion(writeCompleteEvent);
+				} else if (0 == res.bytesConsumed()) {
+					break;
+				}
+				progress = true;
+			}
+		} finally {
+			if (0 < completed) {
+				queuedWritesDone(completed, 0);
 			}
 		}
+		return progress;
 	}
 
 	/**
-	 * Determines whether the connection is in hand-shaking mode
+	 * Encrypts some data, or a handshake or closure message, after the
+	 * encrypted output already pending. Must hold the lock on this
+	 * connection.
 	 *
-	 * @return True if in hand-shaking mode, false otherwise
+	 * @param source The data to encrypt, EMPTY_BUFFER for a message of the
+	 * engine itself.
+	 * @return The result of the wrap.
+	 * @throws SSLException Failed to wrap.
 	 */
-	private synchronized boolean isHandShakingMode() {
-		return handShakingMode;
+	private SSLEngineResult wrapNet(ByteBuffer source) throws SSLException {
+		wrapSources[0] = source;
+		try {
+			return wrapNet(1);
+		} finally {
+			wrapSources[0] = null;
+		}
 	}
 
 	/**
-	 * Specifies whether the connection is in hand-shaking mode
+	 * Encrypts the data held by the first wrapSources, appending the records
+	 * produced to the last buffer of the chain, or to the next buffer once
+	 * that is full. Must hold the lock on this connection.
 	 *
-	 * @param value True if in hand-shaking mode, false otherwise
-	 * @return This object
+	 * @param count The number of sources.
+	 * @return The result of the wrap, BUFFER_OVERFLOW if the chain is full.
+	 * @throws SSLException Failed to wrap.
 	 */
-	private synchronized AfxConnectionTLS setHandShakingMode(boolean value) {
-		this.handShakingMode = value;
-		return this;
+	private SSLEngineResult wrapNet(int count) throws SSLException {
+		while (true) {
+			ByteBuffer dest = netBuffers[numNetBuffers - 1];
+			SSLEngineResult res;
+			dest.compact();
+			try {
+				res = sslEngine.wrap(wrapSources, 0, count, dest);
+			} finally {
+				dest.flip();
+			}
+			if ((res.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) || (numNetBuffers == netBuffers.length)) {
+				return res;
+			}
+
+			// No room left for another record, move on to the next buffer
+			ByteBuffer next = domain.getBufferPool().acquire(minNetBufferSize);
+			next.position(next.limit()); // Empty buffer
+			netBuffers[numNetBuffers++] = next;
+		}
 	}
 
 	/**
-	 * Determines whether hand-shaking is aborted
+	 * Determines whether some encrypted output is waiting to be written. Must
+	 * hold the lock on this connection.
 	 *
-	 * @return True if hand-shaking is aborted, false otherwise
+	 * @return True if pending, false if all written.
 	 */
-	private synchronized boolean isHandshakeAborted() {
-		return handshakeAborted;
+	private boolean hasNetOutput() {
+		for (int i = 0; i < numNetBuffers; ++i) {
+			if (netBuffers[i].hasRemaining()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
-	 * Specifies whether hand-shaking is aborted
+	 * Writes as much of the encrypted output as the channel takes, with a
+	 * single gathering write of the chain of network buffers. Once all
+	 * written, the chain shrinks back to its first buffer, the others going
+	 * back to the pool. Must hold the lock on this connection.
 	 *
-	 * @param value The new value to be set
-	 * @return This object
+	 * @return True if all written, false otherwise.
+	 * @throws IOException Failed to write.
 	 */
-	private synchronized AfxConnectionTLS setHandshakeAborted(boolean value) {
-		this.handshakeAborted = value;
-		return this;
+	private boolean flushNetBuffer() throws IOException {
+		int first = 0;
+		while ((first < numNetBuffers) && !netBuffers[first].hasRemaining()) {
+			++first;
+		}
+		if (first < numNetBuffers) {
+			if (null == channel) {
+				throw new IOException("Channel is NULL, probably in the middle of shutting down");
+			}
+			traffic.bytesWritten(channel.write(netBuffers, first, numNetBuffers - first));
+			if (hasNetOutput()) {
+				traffic.partialWrite();
+				return false;
+			}
+		}
+		releaseNetBuffers();
+		return true;
+	}
+
+	/**
+	 * Gives the network buffers beyond the first back to the pool. Must hold
+	 * the lock on this connection.
+	 */
+	private void releaseNetBuffers() {
+		AfxBufferPool pool = domain.getBufferPool();
+		while (numNetBuffers > 1) {
+			pool.release(netBuffers[--numNetBuffers]);
+			netBuffers[numNetBuffers] = null;
+		}
 	}
 
 	/**
-	 * Determines whether hand-shaking is completed
+	 * Decrypts the complete records available in the network input, until
+	 * they run out or the destination has no room left for another one. Must
+	 * hold the lock on this connection.
 	 *
-	 * @return True if hand-shake is completed, false otherwise.
+	 * @param dest The buffer to decrypt into, from its position.
+	 * @return The number of bytes decrypted.
+	 * @throws SSLException The session closed, or failed to unwrap.
 	 */
-	private synchronized boolean isHandshakeDone() {
-		return handshakeDone;
+	private int unwrapInbound(ByteBuffer dest) throws SSLException {
+		int produced = 0;
+		while (inNetBuffer.hasRemaining()) {
+			SSLEngineResult res = sslEngine.unwrap(inNetBuffer, dest);
+
+			if (res.getStatus() == SSLEngineResult.Status.CLOSED) {
+				throw new SSLException("Session closed");
+			} else if (res.getStatus() != SSLEngineResult.Status.OK) {
+				// Buffer underflow, i.e. no complete record left, or buffer
+				// overflow, i.e. the client must first consume some data
+				break;
+			} else if ((0 == res.bytesConsumed()) && (0 == res.bytesProduced())) {
+				break;
+			}
+			produced += res.bytesProduced();
+		}
+		return produced;
 	}
 
 	/**
-	 * Specifies whether hand-shaking is completed
+	 * Sends the close_notify alert, as much as the channel takes without
+	 * waiting, then closes the channel. The close_notify of the peer is not
+	 * waited for, as allowed when the connection is not to be reused. Must
+	 * hold the lock on this connection.
 	 *
-	 * @param value The new value to be set
-	 * @return This object
+	 * @throws InterruptedException User interruption
+	 */
+	private void closingHandshake() throws InterruptedException {
+		handshake = Handshake.NONE;
+		readindMode = false;
+		if (null != channel) {
+			try {
+				sslEngine.closeOutbound();
+				int safety = 10;
+				while ((--safety > 0) && !sslEngine.isOutboundDone()) {
+					SSLEngineResult res = wrapNet(EMPTY_BUFFER);
+					if ((res.getStatus() != SSLEngineResult.Status.OK) && (res.getStatus() != SSLEngineResult.Status.CLOSED)) {
+						break;
+					}
+				}
+				if (!flushNetBuffer() && DjvSystem.diagnosticEnabled()) {
+					DjvSystem.logInfo(Category.DESIGN, "Closing " + this + " without sending the whole close_notify");
+				}
+			} catch (IOException | RuntimeException e) {
+				DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+			}
+		}
+
+		disableReactorRead();
+		disableReactorWrite();
+		if (null != channel) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				DjvSystem.logError(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+			}
+			channel = null;
+		}
+		releaseBuffers();
+		domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE_COMPLETE, this), true);
+
+		if (null != connectionventHandler) {
+			connectionventHandler.closed();
+		}
+		connectionventHandler = null;
+	}
+
+	@Override
+	synchronized void discard() {
+		releaseBuffers();
+	}
+
+	/**
+	 * Gives the buffers of this connection back to the pool, once closed. Must
+	 * hold the lock on this connection.
 	 */
-	private synchronized AfxConnectionTLS setHandshakeDone(boolean value) {
-		this.handshakeDone = value;
-		return this;
+	private void releaseBuffers() {
+		if (!buffersReleased) {
+			buffersReleased = true;
+			AfxBufferPool pool = domain.getBufferPool();
+			releaseNetBuffers();
+			pool.release(outNetBuffer);
+			pool.release(inNetBuffer);
+			pool.release(inAppBuffer);
+		}
+		releaseLeasedBuffers();
 	}
 
-	private final ByteBuffer inNetBuffer;
-	private final ByteBuffer inAppBuffer;
-	private boolean handshakeAborted;
-	private boolean handshakeDone;
-	private boolean handShakingMode;
-	private Thread handshakeThread;
+	private ByteBuffer inNetBuffer;
+	private ByteBuffer inAppBuffer;
 	private boolean readindMode;
+	private boolean buffersReleased;
 	private static SSLContext gSslContext;
+	private static AfxTlsSessionCache gSessionCache;
+	private final SSLContext sslContext;
+	private final AfxTlsSessionCache sessionCache;
+
+	/**
+	 * The identity of the peer of a client connection, and whether its last
+	 * handshake resumed a session, guarded by the lock on this connection
+	 */
+	private String peerHost;
+	private int peerPort;
+	private long handshakeStartMs;
+	private boolean sessionResumed;
+
+	/**
+	 * Source of the wraps producing handshake messages only
+	 */
+	private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+	/**
+	 * Maximum number of network buffers encrypted into per writable event,
+	 * each holding at least one full record
+	 */
+	private static final int MAX_NET_BUFFERS = 16;
+
+	/**
+	 * Maximum number of queued messages wrapped at once
+	 */
+	private static final int MAX_WRAP_SOURCES = 64;
+
+	/**
+	 * The chain of network buffers holding the encrypted output, written in
+	 * order, the first being outNetBuffer, and the sources of the wrap in
+	 * progress, guarded by the lock on this connection
+	 */
+	private final ByteBuffer[] netBuffers = new ByteBuffer[MAX_NET_BUFFERS];
+	private int numNetBuffers = 1;
+	private final ByteBuffer[] wrapSources = new ByteBuffer[MAX_WRAP_SOURCES];
+
+	/**
+	 * The handshake in progress, and whether its delegated tasks are running,
+	 * guarded by the lock on this connection
+	 */
+	private Handshake handshake = Handshake.NONE;
+	private boolean tasksPending;
+
+	/**
+	 * Handshakes of a connection.
+	 */
+	private static enum Handshake {
+		/**
+		 * No handshake in progress.
+		 */
+		NONE,
+		/**
+		 * Opening handshake in progress, no application data may be wrapped
+		 * or unwrapped.
+		 */
+		OPENING
+	}
 }
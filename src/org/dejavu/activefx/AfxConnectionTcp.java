@@ -10,17 +10,15 @@ import org.dejavu.util.DjvExceptionUtil;
 import org.dejavu.util.DjvLogMsg.Category;
 import java.nio.channels.SelectableChannel;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * An AFX connection for handling TCP/IP channels
  */
 public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandler {
 
-	private static volatile int gNumMsgsWrittenForAllChannels;
-	private static volatile long gFirstWriteTs;
-	private static volatile long gLastWriteTs;
-	private volatile int numMsgsWrittenForThisChannel;
-
 	/**
 	 * Creates a new connection instance
 	 *
@@ -49,14 +47,52 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 	 * Retrieves the application-wide message write rate
 	 *
 	 * @return The number of messages written per hour since the start of the
-	 * application.
+	 * application, by all connections.
+	 * @deprecated Use AfxDomain.getStatistics() or
+	 * AfxConnection.getStatistics(), which also cover reads, bytes and
+	 * failures.
 	 */
+	@Deprecated
 	public static int getMsgsRatePerHour() {
-		long delta = (gLastWriteTs - gFirstWriteTs);
-		if (delta > 0) {
-			return (int) (((float) gNumMsgsWrittenForAllChannels / (float) delta) * 1000.0 * 3600.0);
+		return (int) (AfxTrafficMonitor.getGlobal().snapshot(0).getMessagesOutRate(null) * 3600.0);
+	}
+
+	/**
+	 * Initiates sending part of a file to the connection. The bytes are moved
+	 * from the file to the socket by FileChannel.transferTo() as the socket
+	 * becomes writable, without passing through the JVM heap. The transfer
+	 * occupies the connection like a write request: only one write request or
+	 * file transfer is accepted at any one time, and a single
+	 * AfxEventHandler.writeCompleted() (or writeFailed()) is reported when the
+	 * transfer ends.
+	 *
+	 * @param file The file to send from, must stay open until the transfer
+	 * ends. It is not closed by the connection.
+	 * @param position The position in the file of the first byte to send.
+	 * @param count The number of bytes to send. The transfer fails if the file
+	 * ends before that.
+	 * @param handler The event handler to receive the write acknowledgement.
+	 * @return True if the transfer had been queued, false means the request
+	 * was rejected, nothing will be sent.
+	 * @throws java.lang.InterruptedException
+	 */
+	public boolean sendFile(FileChannel file, long position, long count, AfxEventHandler handler) throws InterruptedException {
+		if ((position < 0) || (count < 0)) {
+			throw new IllegalArgumentException("Invalid position " + position + " or count " + count);
 		}
-		return 0;
+		return domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.SEND_FILE, this, new AfxFileTransfer(file, position, count), handler), true);
+	}
+
+	@Override
+	synchronized boolean sendFileGuard(FsmEvent evt) {
+		AfxFsmEvent event = (AfxFsmEvent) evt;
+		if (null != event.getTransfer()) {
+			fileTransfer = event.getTransfer();
+			m_WriteBuffer = null;
+			writeEventHandler = event.getEventHandler();
+			return true;
+		}
+		return false;
 	}
 
 	@Override
@@ -67,21 +103,26 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 		}
 
 		try {
-			if (null != m_WriteBuffer) {
-				if (-1 < channel.write(m_WriteBuffer)) {
+			if (null != fileTransfer) {
+				transferFile();
+			} else if (null != m_WriteBuffer) {
+				int written = channel.write(m_WriteBuffer);
+				if (-1 < written) {
+					traffic.bytesWritten(written);
 					if (m_WriteBuffer.remaining() == 0) {
-						gLastWriteTs = System.currentTimeMillis();
-						++gNumMsgsWrittenForAllChannels;
-						++numMsgsWrittenForThisChannel;
-
-						// Wrote the entire buffer, don't need write event any more ...
-						disableReactorWrite();
+						// Wrote the entire buffer, don't need write event any more
+						// unless there are queued messages to be written ...
+						if (outboundQueue.isEmpty()) {
+							disableReactorWrite();
+						}
 
 						// ... null out the write buffer ...
 						m_WriteBuffer = null;
 
 						// ... and trigger the transition on event WRITE_COMPLETE
-						domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_COMPLETE, this), true);
+						domain.dispatchCompletion(writeCompleteEvent);
+					} else {
+						traffic.partialWrite();
 					}
 				} else {
 					DjvSystem.logError(Category.DESIGN, "Write on " + this + " failed on " + channel);
@@ -93,9 +134,9 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 					m_WriteBuffer = null;
 
 					// ... and trigger the transition on event WRITE_FAILURE
-					domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_FAILURE, this), true);
+					domain.dispatchCompletion(writeFailureEvent);
 				}
-			} else {
+			} else if (!flushQueuedWrites()) {
 				// No buffer, don't need write event any more ...
 				DjvSystem.logError(Category.DESIGN, "No write buffer");
 
@@ -107,14 +148,97 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 			// Write failed, don't need write event any more ...
 			disableReactorWrite();
 
-			// ... null out the write buffer ...
-			m_WriteBuffer = null;
+			// ... drop the queued messages ...
+			int dropped = outboundQueue.clear();
+			if (0 < dropped) {
+				queuedWritesDone(0, dropped);
+			}
 
-			// ... And trigger the transition on event FAILURE
-			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_FAILURE, this), true);
+			if ((null != m_WriteBuffer) || (null != fileTransfer)) {
+				// ... null out the write buffer ...
+				m_WriteBuffer = null;
+				fileTransfer = null;
+
+				// ... And trigger the transition on event FAILURE
+				domain.dispatchCompletion(writeFailureEvent);
+			}
 		}
 	}
 
+	/**
+	 * Sends as much of the ongoing file transfer as the channel accepts.
+	 * Invoked by the reactor thread.
+	 *
+	 * @throws IOException Failed to read the file or write to the channel.
+	 * @throws InterruptedException User interruption
+	 */
+	private void transferFile() throws IOException, InterruptedException {
+		AfxFileTransfer transfer = fileTransfer;
+		if (0 < transfer.remaining) {
+			long bytes = transfer.file.transferTo(transfer.position, transfer.remaining, channel);
+			transfer.transferred(bytes);
+			traffic.bytesWritten(bytes);
+			if ((0 == bytes) && (0 < transfer.remaining) && (transfer.position >= transfer.file.size())) {
+				throw new IOException("File " + transfer.file + " ended with " + transfer.remaining + " bytes left to send");
+			}
+		}
+
+		if (0 == transfer.remaining) {
+			// Sent the entire file, don't need write event any more unless
+			// there are queued messages to be written ...
+			if (outboundQueue.isEmpty()) {
+				disableReactorWrite();
+			}
+
+			// ... done with the transfer ...
+			fileTransfer = null;
+
+			// ... and trigger the transition on event WRITE_COMPLETE
+			domain.dispatchCompletion(writeCompleteEvent);
+		}
+	}
+
+	/**
+	 * Writes as many queued messages as the channel accepts, with a single
+	 * gathering write. Invoked by the reactor thread.
+	 *
+	 * @return True if there were queued messages, false if the queue is empty.
+	 * @throws IOException Failed to write to the channel.
+	 * @throws InterruptedException User interruption
+	 */
+	private boolean flushQueuedWrites() throws IOException, InterruptedException {
+		int count = outboundQueue.gather(gatherBuffers);
+		if (0 == count) {
+			return false;
+		}
+
+		long written;
+		boolean partial;
+		try {
+			written = channel.write(gatherBuffers, 0, count);
+
+			// The channel did not take all it was given, as opposed to more
+			// being queued than gathered at once
+			partial = gatherBuffers[count - 1].hasRemaining();
+		} finally {
+			Arrays.fill(gatherBuffers, 0, count, null);
+		}
+
+		traffic.bytesWritten(written);
+		int completed = outboundQueue.written(written);
+		if (0 < completed) {
+			queuedWritesDone(completed, 0);
+		}
+
+		if (outboundQueue.isEmpty()) {
+			// All flushed, don't need write event any more
+			disableReactorWrite();
+		} else if (partial) {
+			traffic.partialWrite();
+		}
+		return true;
+	}
+
 	@Override
 	public synchronized void onConnect() throws InterruptedException {
 		String cause;
@@ -169,14 +293,38 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 	}
 
 	@Override
-	public synchronized void onRead() throws InterruptedException {
+	public void onRead() throws InterruptedException {
+		if (readChannel()) {
+			// Presented without holding the lock on this connection
+			pumpStreamData();
+		}
+	}
+
+	/**
+	 * Reads in whatever is available for the ongoing read. Invoked by the
+	 * reactor thread.
+	 *
+	 * @return True if data was read in for a streaming read, to be presented
+	 * to the read handler.
+	 * @throws InterruptedException User interruption
+	 */
+	private synchronized boolean readChannel() throws InterruptedException {
+		if (!reactorReadEnabled) {
+			// Reading was stopped after this event had been selected
+			return false;
+		}
+
 		try {
-			if ((readBuffer != null) && (readBuffer.hasRemaining())) {
+			if (readStreaming) {
+				return streamRead();
+			} else if ((readBuffer != null) && (readBuffer.hasRemaining())) {
 				if (null != channel) {
-					if (-1 < channel.read(readBuffer)) {
+					int bytesRead = channel.read(readBuffer);
+					if (-1 < bytesRead) {
+						traffic.bytesRead(bytesRead);
 						if (readBuffer.remaining() == 0) {
 							// ... And trigger the transition on event READ_COMPLETE
-							domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_COMPLETE, this), true);
+							domain.dispatchCompletion(readCompleteEvent);
 						}
 					} else {
 						// Probably end-of-stream, i.e. the other side closed its writer ...
@@ -195,8 +343,36 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 
 			// Read failed, stop the reading process ...
 			disableReactorRead();
-			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_FAILURE, this), true);
+			domain.dispatchCompletion(readFailureEvent);
 		}
+		return false;
+	}
+
+	/**
+	 * Reads in whatever is available for a streaming read. Invoked by the
+	 * reactor thread, while holding the lock on this connection.
+	 *
+	 * @return True if the data is to be presented to the read handler, false
+	 * if it is being presented by another thread, which resumes reading once
+	 * done.
+	 * @throws IOException Failed to read from the channel.
+	 */
+	private boolean streamRead() throws IOException {
+		if (streamDelivering) {
+			disableReactorRead();
+			return false;
+		}
+		if (readBuffer.hasRemaining()) {
+			if (null == channel) {
+				throw new IOException("Channel is NULL, probably in the middle of shutting down");
+			}
+			int bytesRead = channel.read(readBuffer);
+			if (0 > bytesRead) {
+				throw new IOException("Read on " + this + " returned -1, probably end of stream.");
+			}
+			traffic.bytesRead(bytesRead);
+		}
+		return true;
 	}
 
 	@Override
@@ -271,7 +447,7 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 	@Override
 	public String toString() {
 		synchronized(this) {
-			return "{channel:" + (channel != null ? channel.toString() : "null") + ", currentState:" + getCurrentState() + ", currentInterest:" + domain.getInterestOps(this) + ", currentReady:" + domain.getReadyOps(this) + ", numMsgsWritten:" + numMsgsWrittenForThisChannel + "}";
+			return "{channel:" + (channel != null ? channel.toString() : "null") + ", currentState:" + getCurrentState() + ", currentInterest:" + domain.getInterestOps(this) + ", currentReady:" + domain.getReadyOps(this) + ", numMsgsWritten:" + traffic.getMessagesOut() + "}";
 		}
 	}
 
@@ -325,6 +501,8 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 		}
 
 		domain.removeHandler(this);
+		failQueuedWrites();
+		fileTransfer = null;
 		if (channel != null) {
 			try {
 				channel.close();
@@ -333,6 +511,7 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 			} finally {
 				channel = null;
 			}
+			releaseLeasedBuffers();
 
 			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE_COMPLETE, this), true);
 
@@ -349,11 +528,36 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 	}
 
 	@Override
-	public void initiateWrite(FsmEvent evt) {
-		// Tells reactor to notify of write events
-		enableReactorWrite();
-		if (gFirstWriteTs == 0) {
-			gFirstWriteTs = System.currentTimeMillis();
+	public synchronized void initiateWrite(FsmEvent evt) {
+		// Tells reactor to notify of write events, unless already notifying
+		// for the queued writes, which the write is then carried out with
+		if (!reactorWriteEnabled || outboundQueue.isEmpty()) {
+			enableReactorWrite();
+		}
+	}
+
+	@Override
+	synchronized boolean resumeStreamRead() throws InterruptedException {
+		enableReactorRead();
+		return false;
+	}
+
+	@Override
+	synchronized void suspendStreamRead() {
+		disableReactorRead();
+	}
+
+	@Override
+	synchronized void endStreamRead() {
+		disableReactorRead();
+	}
+
+	@Override
+	synchronized void startQueuedWrites() {
+		// Tells reactor to notify of write events, unless already notifying for
+		// an ongoing write
+		if (!reactorWriteEnabled) {
+			enableReactorWrite();
 		}
 	}
 
@@ -377,64 +581,140 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 	}
 
 	@Override
-	public synchronized void openComplete(FsmEvent evt) {
-		if (connectionventHandler != null) {
-			connectionventHandler.openCompleted();
+	public void openComplete(FsmEvent evt) {
+		// The handlers are invoked without holding the lock on this
+		// connection, as they may well write to other connections
+		AfxEventHandler handler;
+		synchronized (this) {
+			handler = connectionventHandler;
+		}
+		if (handler != null) {
+			handler.openCompleted();
 		}
 	}
 
 	@Override
-	public synchronized void openFailed(FsmEvent evt) {
+	public void openFailed(FsmEvent evt) {
 		AfxFsmEvent afxEvt = (AfxFsmEvent) evt;
 
-		if (connectionventHandler != null) {
-			connectionventHandler.openFailed(afxEvt != null ? afxEvt.getCause() : "unknown");
+		AfxEventHandler handler;
+		synchronized (this) {
+			handler = connectionventHandler;
+
+			// No more open related event will come from this connection
+			connectionventHandler = null;
+		}
+		if (handler != null) {
+			handler.openFailed(afxEvt != null ? afxEvt.getCause() : "unknown");
 		}
+	}
 
-		// No more open related event will come from this connection
-		connectionventHandler = null;
+	@Override
+	public void readComplete(FsmEvent evt) {
+		AfxEventHandler handler;
+		ByteBuffer buffer;
+		synchronized (this) {
+			traffic.messagesRead(1);
+			handler = readEventHandler;
+			buffer = readBuffer;
+			readBuffer = null;
+		}
+		if (handler != null) {
+			buffer.flip();
+			handler.readCompleted(buffer);
+		}
 	}
 
 	@Override
-	public synchronized void readComplete(FsmEvent evt) {
-		if (readEventHandler != null) {
-			readBuffer.flip();
-			readEventHandler.readCompleted(readBuffer);
+	public void readFailed(FsmEvent evt) {
+		AfxEventHandler handler;
+		synchronized (this) {
+			traffic.readFailed();
+			readStreaming = false;
+			handler = readEventHandler;
+		}
+		if (handler != null) {
+			handler.readFailed();
 		}
+	}
 
-		readBuffer = null;
+	@Override
+	public void writeComplete(FsmEvent evt) {
+		AfxEventHandler handler;
+		synchronized (this) {
+			traffic.messagesWritten(1);
+			handler = writeEventHandler;
+		}
+		if (null != handler) {
+			handler.writeCompleted();
+		}
 	}
 
 	@Override
-	public synchronized void readFailed(FsmEvent evt) {
-		if (readEventHandler != null) {
-			readEventHandler.readFailed();
+	public void writeFailed(FsmEvent evt) {
+		AfxEventHandler handler;
+		synchronized (this) {
+			traffic.writesFailed(1);
+			handler = writeEventHandler;
+		}
+		if (null != handler) {
+			handler.writeFailed();
 		}
 	}
 
 	@Override
-	public synchronized void writeComplete(FsmEvent evt) {
-		if (null != writeEventHandler) {
-			writeEventHandler.writeCompleted();
+	public void readWriteFailed(FsmEvent evt) {
+		AfxEventHandler readHandler;
+		AfxEventHandler writeHandler;
+		synchronized (this) {
+			traffic.readFailed();
+			traffic.writesFailed(1);
+			readStreaming = false;
+			readHandler = readEventHandler;
+			writeHandler = writeEventHandler;
+		}
+		if (readHandler != null) {
+			readHandler.readFailed();
+		}
+
+		if (null != writeHandler) {
+			writeHandler.writeFailed();
 		}
 	}
 
 	@Override
-	public synchronized void writeFailed(FsmEvent evt) {
-		if (null != writeEventHandler) {
-			writeEventHandler.writeFailed();
+	void readTimedOut() throws InterruptedException {
+		if ((null != readBuffer) && !readBuffer.hasRemaining()) {
+			// Already complete, the completion is on its way
+			return;
 		}
+
+		// Stop the reading process, as for a failure ...
+		disableReactorRead();
+
+		// ... and trigger the transition on event READ_FAILURE
+		domain.dispatchCompletion(readFailureEvent);
 	}
 
 	@Override
-	public synchronized void readWriteFailed(FsmEvent evt) {
-		if (readEventHandler != null) {
-			readEventHandler.readFailed();
+	void writeTimedOut() throws InterruptedException {
+		if ((null != m_WriteBuffer) && !m_WriteBuffer.hasRemaining()) {
+			// Already complete, the completion is on its way
+			return;
 		}
 
-		if (null != writeEventHandler) {
-			writeEventHandler.writeFailed();
+		// Don't need write event any more, unless there are queued messages
+		// to be written ...
+		if (outboundQueue.isEmpty()) {
+			disableReactorWrite();
 		}
+
+		// ... drop the write buffer or file transfer ...
+		m_WriteBuffer = null;
+		fileTransfer = null;
+
+		// ... and trigger the transition on event WRITE_FAILURE
+		domain.dispatchCompletion(writeFailureEvent);
 	}
 
 	protected synchronized void disableReactorRead() {
@@ -487,6 +767,21 @@ public class AfxConnectionTcp extends AfxConnection implements ReactorEventHandl
 	@SuppressWarnings("ProtectedField")
 	protected SocketChannel channel = null;
 
+	/**
+	 * The ongoing file transfer, null if none
+	 */
+	private AfxFileTransfer fileTransfer;
+
+	/**
+	 * Maximum number of queued messages written with one gathering write
+	 */
+	private static final int MAX_GATHER = 64;
+
+	/**
+	 * Scratch array for gathering writes, only used by the reactor thread
+	 */
+	private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+
 	/** @link dependency */
 	/*# AfxFsmEvent lnkAfxFsmEvent; */
 	@SuppressWarnings("ProtectedField")
@@ -10,7 +10,11 @@ import org.dejavu.fsm.FsmContext;
 import org.dejavu.util.DjvExceptionUtil;
 import org.dejavu.util.DjvLogMsg.Category;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Active FX UDP connection
@@ -57,18 +61,23 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 	@Override
 	@SuppressWarnings("NestedAssignment")
 	public void onWrite() throws InterruptedException {
+		if (flushSendBatch()) {
+			return;
+		}
+
 		try {
 			domain.deregisterHandler(this, SelectionKey.OP_WRITE);
 			if (null != remoteAddress) {
 				int byteWritten;
 				if (0 < (byteWritten = channel.send(m_WriteBuffer, remoteAddress))) {
+					traffic.bytesWritten(byteWritten);
 					if (byteWritten < m_WriteBuffer.limit()) {
 						DjvSystem.logWarning(Category.DESIGN, "Datagram only partially written");
 					}
 
 					// Wrote the entire buffer, don't need write event any more ...
 					// ... And trigger the transition on event WRITE_COMPLETE
-					domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_COMPLETE, this), true);
+					domain.dispatchCompletion(writeCompleteEvent);
 					return;
 				} else {
 					DjvSystem.logWarning(Category.DESIGN, "Send failed");
@@ -78,12 +87,12 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 			}
 
 			// Write failed, don't need write event any more ...
-			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_FAILURE, this), true);
+			domain.dispatchCompletion(writeFailureEvent);
 		} catch (IOException ex) {
 			DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(ex));
 			// Write failed, don't need write event any more ...
 			// ... And trigger the transition on event FAILURE
-			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE_FAILURE, this), true);
+			domain.dispatchCompletion(writeFailureEvent);
 		}
 	}
 
@@ -105,10 +114,17 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 
 	@Override
 	public void onRead() throws InterruptedException {
+		if (receiveBatch()) {
+			return;
+		}
+
 		try {
 			if ((readBuffer != null) && (readBuffer.hasRemaining())) {
+				int position = readBuffer.position();
 				SocketAddress sender = channel.receive(readBuffer);
 				if (sender != null) {
+					traffic.bytesRead(readBuffer.position() - position);
+					traffic.messagesRead(1);
 					remoteAddress = sender;
 					readFailCount = 0;
 
@@ -116,7 +132,7 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 					domain.deregisterHandler(this, SelectionKey.OP_READ);
 
 					// Trigger the transition on event READ_COMPLETE
-					domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_COMPLETE, this), true);
+					domain.dispatchCompletion(readCompleteEvent);
 
 					return;
 				} else {
@@ -131,7 +147,7 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 
 				readFailCount = 0;
 				domain.deregisterHandler(this, SelectionKey.OP_READ);
-				domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_FAILURE, this), true);
+				domain.dispatchCompletion(readFailureEvent);
 			} else {
 				domain.deregisterHandler(this, SelectionKey.OP_READ);
 
@@ -142,7 +158,7 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 					DjvSystem.logError(Category.DESIGN, "Data available for read but no room left in read buffer");
 				}
 
-				domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_FAILURE, this), true);
+				domain.dispatchCompletion(readFailureEvent);
 			}
 		} catch (java.io.IOException e) {
 			DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
@@ -150,7 +166,154 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 			domain.deregisterHandler(this, SelectionKey.OP_READ);
 
 			// Read failed, stop the reading process ...
-			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_FAILURE, this), true);
+			domain.dispatchCompletion(readFailureEvent);
+		}
+	}
+
+	/**
+	 * Sends the datagrams of the ongoing send batch, if any, in a tight loop
+	 * until done or the send buffer is full, in which case OP_WRITE stays
+	 * registered to carry on. Invoked by the reactor thread.
+	 *
+	 * @return True if a send batch is ongoing, false otherwise.
+	 * @throws InterruptedException User interruption
+	 */
+	private synchronized boolean flushSendBatch() throws InterruptedException {
+		if (null == sendBatch) {
+			return false;
+		}
+
+		if (!sendBatchFlushed && (null != channel) && sendBatch.flush(channel)) {
+			sendBatchFlushed = true;
+			domain.deregisterHandler(this, SelectionKey.OP_WRITE);
+			domain.dispatchCompletion(writeCompleteEvent);
+		}
+		return true;
+	}
+
+	/**
+	 * Reports the completion of the send batch, if any, the datagrams not yet
+	 * sent being failed. The batch is detached and settled under the lock, as
+	 * the reactor thread may be flushing it, and reported once the lock is
+	 * released.
+	 *
+	 * @param cause Why the datagrams not yet sent failed.
+	 * @return True if a send batch completed, false if none was ongoing.
+	 */
+	private boolean completeSendBatch(String cause) {
+		AfxSendBatch batch;
+		AfxEventHandler handler;
+		synchronized (this) {
+			batch = sendBatch;
+			if (null == batch) {
+				return false;
+			}
+
+			sendBatch = null;
+			if (!sendBatchFlushed) {
+				domain.deregisterHandler(this, SelectionKey.OP_WRITE);
+				batch.fail(cause);
+			}
+			traffic.bytesWritten(batch.getBytesSent());
+			traffic.messagesWritten(batch.size() - batch.getFailureCount());
+			if (0 < batch.getFailureCount()) {
+				traffic.writesFailed(batch.getFailureCount());
+			}
+			handler = writeEventHandler;
+		}
+		if (null != handler) {
+			handler.batchSent(batch);
+		}
+		return true;
+	}
+
+	/**
+	 * Receives the datagrams pending, up to the budget per select, into the
+	 * ring of the batch receive mode, and delivers them to the read handler
+	 * each time the ring fills up, and once nothing more is pending. Invoked by
+	 * the reactor thread. OP_READ stays registered until the mode ends.
+	 *
+	 * @return True if in batch receive mode, false otherwise.
+	 * @throws InterruptedException User interruption
+	 */
+	private boolean receiveBatch() throws InterruptedException {
+		AfxDatagramBatch ring;
+		synchronized (this) {
+			ring = batch;
+			if ((null == ring) || (null == channel)) {
+				return false;
+			}
+		}
+
+		int received = 0;
+		boolean more = true;
+		while (more) {
+			AfxEventHandler handler;
+			synchronized (this) {
+				if ((ring != batch) || (null == channel)) {
+					// Ended by the handler
+					break;
+				}
+				try {
+					while (!ring.isFull() && (received < batchBudget)) {
+						SocketAddress sender = ring.receive(channel);
+						if (null == sender) {
+							break;
+						}
+						remoteAddress = sender;
+						++received;
+					}
+				} catch (IOException e) {
+					DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+
+					ring.reset();
+					batch = null;
+					readStreaming = false;
+					domain.deregisterHandler(this, SelectionKey.OP_READ);
+					domain.dispatchCompletion(readFailureEvent);
+					break;
+				}
+				if (0 == ring.size()) {
+					break;
+				}
+
+				// Carry on once the full ring is delivered, within the budget
+				more = ring.isFull() && (received < batchBudget);
+				for (int i = 0; i < ring.size(); ++i) {
+					traffic.bytesRead(ring.getDatagram(i).remaining());
+				}
+				traffic.messagesRead(ring.size());
+				handler = readEventHandler;
+				batchDelivering = true;
+			}
+			deliverBatch(ring, handler);
+		}
+		return true;
+	}
+
+	/**
+	 * Presents a batch to the read handler, without holding the lock on this
+	 * connection as the handler may well write to other connections, then
+	 * empties the ring. The handler may end the mode, or close the connection,
+	 * from within the call, the buffers of the ring then being released once
+	 * it returns.
+	 */
+	private void deliverBatch(AfxDatagramBatch ring, AfxEventHandler handler) {
+		try {
+			if (null != handler) {
+				handler.datagramsReceived(ring);
+			}
+		} finally {
+			boolean release;
+			synchronized (this) {
+				ring.reset();
+				batchDelivering = false;
+				release = releasePending;
+				releasePending = false;
+			}
+			if (release) {
+				releaseLeasedBuffers();
+			}
 		}
 	}
 
@@ -192,6 +355,197 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 		}
 	}
 
+	/**
+	 * Sets the protocol family of the channel to be created by open(int), e.g.
+	 * StandardProtocolFamily.INET to join IPv4 multicast groups on platforms
+	 * where an IPv6 channel can not. Must be set before opening.
+	 *
+	 * @param family The protocol family, null for the platform default.
+	 * @return This object.
+	 */
+	public synchronized AfxConnectionUdp setProtocolFamily(ProtocolFamily family) {
+		protocolFamily = family;
+		return this;
+	}
+
+	/**
+	 * Sets whether the channel to be created by open(int) binds with
+	 * SO_REUSEADDR, allowing several receivers of the same multicast feed on
+	 * one host. Must be set before opening.
+	 *
+	 * @param reuse True to reuse the address, false otherwise (default).
+	 * @return This object.
+	 */
+	public synchronized AfxConnectionUdp setReuseAddress(boolean reuse) {
+		reuseAddress = reuse;
+		return this;
+	}
+
+	/**
+	 * Joins a multicast group, receiving the datagrams sent to it from any
+	 * source, subject to blockSource(). The datagrams are received as any
+	 * other, with read() or receiveBatches().
+	 *
+	 * @param group The multicast group address.
+	 * @param intf The interface to join on.
+	 * @return The membership key.
+	 * @throws IOException Not open, or failed to join.
+	 */
+	public synchronized MembershipKey joinGroup(InetAddress group, NetworkInterface intf) throws IOException {
+		return addMembership(openChannel().join(group, intf));
+	}
+
+	/**
+	 * Joins a multicast group source-specifically, receiving only the
+	 * datagrams sent to it from the given source. Several sources may be
+	 * joined for the same group and interface.
+	 *
+	 * @param group The multicast group address.
+	 * @param intf The interface to join on.
+	 * @param source The source address to receive from.
+	 * @return The membership key.
+	 * @throws IOException Not open, already joined from any source, or failed
+	 * to join.
+	 */
+	public synchronized MembershipKey joinGroup(InetAddress group, NetworkInterface intf, InetAddress source) throws IOException {
+		return addMembership(openChannel().join(group, intf, source));
+	}
+
+	/**
+	 * Leaves a multicast group joined from any source.
+	 *
+	 * @param group The multicast group address.
+	 * @param intf The interface joined on.
+	 * @return True if left, false if not a member.
+	 */
+	public synchronized boolean leaveGroup(InetAddress group, NetworkInterface intf) {
+		return leaveGroup(group, intf, null);
+	}
+
+	/**
+	 * Leaves a multicast group joined source-specifically.
+	 *
+	 * @param group The multicast group address.
+	 * @param intf The interface joined on.
+	 * @param source The source joined, null for a membership from any source.
+	 * @return True if left, false if not a member.
+	 */
+	public synchronized boolean leaveGroup(InetAddress group, NetworkInterface intf, InetAddress source) {
+		MembershipKey key = findMembership(group, intf, source);
+		if (null == key) {
+			return false;
+		}
+		key.drop();
+		memberships.remove(key);
+		return true;
+	}
+
+	/**
+	 * Blocks the datagrams from a source, in a multicast group joined from any
+	 * source.
+	 *
+	 * @param group The multicast group address.
+	 * @param intf The interface joined on.
+	 * @param source The source address to block.
+	 * @throws IOException Not a member from any source, or failed to block.
+	 */
+	public synchronized void blockSource(InetAddress group, NetworkInterface intf, InetAddress source) throws IOException {
+		MembershipKey key = findMembership(group, intf, null);
+		if (null == key) {
+			throw new IOException("Not a member of " + group + " on " + intf + " " + this);
+		}
+		key.block(source);
+	}
+
+	/**
+	 * Unblocks the datagrams from a source blocked with blockSource().
+	 *
+	 * @param group The multicast group address.
+	 * @param intf The interface joined on.
+	 * @param source The source address to unblock.
+	 * @return True if unblocked, false if not a member.
+	 */
+	public synchronized boolean unblockSource(InetAddress group, NetworkInterface intf, InetAddress source) {
+		MembershipKey key = findMembership(group, intf, null);
+		if (null == key) {
+			return false;
+		}
+		key.unblock(source);
+		return true;
+	}
+
+	/**
+	 * Retrieves the multicast memberships currently held.
+	 *
+	 * @return A copy of the membership keys.
+	 */
+	public synchronized List<MembershipKey> getMemberships() {
+		return new ArrayList<>(memberships);
+	}
+
+	/**
+	 * Sets the interface multicast datagrams are sent out of.
+	 *
+	 * @param intf The interface.
+	 * @throws IOException Not open, or failed to set the option.
+	 */
+	public synchronized void setMulticastInterface(NetworkInterface intf) throws IOException {
+		openChannel().setOption(StandardSocketOptions.IP_MULTICAST_IF, intf);
+	}
+
+	/**
+	 * Sets whether multicast datagrams sent are looped back to the local host.
+	 *
+	 * @param loopback True to loop back, false otherwise.
+	 * @throws IOException Not open, or failed to set the option.
+	 */
+	public synchronized void setMulticastLoopback(boolean loopback) throws IOException {
+		openChannel().setOption(StandardSocketOptions.IP_MULTICAST_LOOP, loopback);
+	}
+
+	/**
+	 * Sets the time-to-live of multicast datagrams sent.
+	 *
+	 * @param ttl The time-to-live, from 0 to 255.
+	 * @throws IOException Not open, or failed to set the option.
+	 */
+	public synchronized void setMulticastTimeToLive(int ttl) throws IOException {
+		openChannel().setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+	}
+
+	/**
+	 * Retrieves the channel, making sure it is open. Must hold the lock.
+	 */
+	private DatagramChannel openChannel() throws IOException {
+		if ((null == channel) || !channel.isOpen()) {
+			throw new IOException("Not open " + this);
+		}
+		return channel;
+	}
+
+	/**
+	 * Records a new membership, unless already held. Must hold the lock.
+	 */
+	private MembershipKey addMembership(MembershipKey key) {
+		if (!memberships.contains(key)) {
+			memberships.add(key);
+		}
+		return key;
+	}
+
+	/**
+	 * Finds a valid membership. Must hold the lock.
+	 */
+	private MembershipKey findMembership(InetAddress group, NetworkInterface intf, InetAddress source) {
+		for (MembershipKey key : memberships) {
+			if (key.isValid() && key.group().equals(group) && key.networkInterface().equals(intf)
+				&& ((null == source) ? (null == key.sourceAddress()) : source.equals(key.sourceAddress()))) {
+				return key;
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public SelectableChannel getHandle() {
 		return channel;
@@ -229,7 +583,10 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 			}
 			if (null == afxEvent.channel) {
 				localPort = afxEvent.ipPort;
-				channel = DatagramChannel.open();
+				channel = (null == protocolFamily) ? DatagramChannel.open() : DatagramChannel.open(protocolFamily);
+				if (reuseAddress) {
+					channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				}
 				channel.socket().bind(new InetSocketAddress(localPort));
 				channel.configureBlocking(false);
 			} else if(afxEvent.channel instanceof DatagramChannel) {
@@ -250,7 +607,7 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 	}
 
 	@Override
-	void initiateClose(FsmEvent evt) throws InterruptedException {
+	synchronized void initiateClose(FsmEvent evt) throws InterruptedException {
 		if (channel != null) {
 			try {
 				channel.close();
@@ -258,6 +615,15 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 				DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
 			}
 			channel = null;
+			memberships.clear();
+			batch = null;
+			readStreaming = false;
+			if (batchDelivering) {
+				// The ring is being presented, released once it is
+				releasePending = true;
+			} else {
+				releaseLeasedBuffers();
+			}
 
 			domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.CLOSE_COMPLETE, this), true);
 
@@ -279,6 +645,147 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 		domain.registerHandler(this, SelectionKey.OP_WRITE);
 	}
 
+	/**
+	 * Not supported for UDP, datagrams are received one at a time with read(),
+	 * or in batches with receiveBatches().
+	 *
+	 * @return Always false.
+	 */
+	@Override
+	public boolean readStream(ByteBuffer buffer, AfxEventHandler handler) {
+		DjvSystem.logWarning(Category.DESIGN, "Streaming read not supported on UDP connection " + this);
+		return false;
+	}
+
+	/**
+	 * Initiates the batch receive mode. Unlike read(), OP_READ stays
+	 * registered and every select drains the datagrams pending, up to a budget,
+	 * into the ring of the given batch, which is delivered to
+	 * AfxEventHandler.datagramsReceived() each time it fills up, and once
+	 * nothing more is pending. The mode goes on until ended with
+	 * endReadStream(), upon which the read completes with an empty buffer. A
+	 * failure is reported via AfxEventHandler.readFailed(). Only one read
+	 * request, batched or not, will be accepted at any one time.
+	 *
+	 * @param batch The batch to receive into, leased from this connection.
+	 * @param maxPerSelect The maximum number of datagrams received per select,
+	 * so that a busy connection does not starve the others served by the same
+	 * reactor.
+	 * @param handler The event handler to receive the batches and read
+	 * acknowledgements.
+	 * @return True if the request had been initiated, false if the request
+	 * failed to start some how.
+	 * @throws InterruptedException User interruption
+	 */
+	public boolean receiveBatches(AfxDatagramBatch batch, int maxPerSelect, AfxEventHandler handler) throws InterruptedException {
+		return domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.READ_STREAM, this, batch, Math.max(1, maxPerSelect), handler), true);
+	}
+
+	/**
+	 * Accepts the batch receive mode requested by receiveBatches().
+	 *
+	 * @param evt The READ_STREAM event.
+	 * @return True if the mode is to start, false otherwise.
+	 */
+	@Override
+	synchronized boolean readStreamGuard(FsmEvent evt) {
+		AfxDatagramBatch requested = (evt instanceof AfxFsmEvent) ? ((AfxFsmEvent) evt).getReceiveBatch() : null;
+		if (null == requested) {
+			return false;
+		}
+
+		// The read completes with an empty buffer once the mode ends
+		readBuffer = ByteBuffer.allocate(0);
+		readEventHandler = ((AfxFsmEvent) evt).getEventHandler();
+		readStreaming = true;
+		batch = requested;
+		batchBudget = ((AfxFsmEvent) evt).getReceiveBudget();
+		batch.reset();
+		return true;
+	}
+
+	@Override
+	boolean resumeStreamRead() {
+		// Never invoked, the batch receive mode never suspends
+		return false;
+	}
+
+	@Override
+	void suspendStreamRead() {
+		// Never invoked, the batch receive mode never suspends
+	}
+
+	@Override
+	synchronized void endStreamRead() {
+		batch = null;
+		domain.deregisterHandler(this, SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Not supported for UDP, datagrams are sent one at a time with write().
+	 *
+	 * @return Always false.
+	 */
+	@Override
+	public boolean queueWrite(ByteBuffer buffer, AfxEventHandler handler) {
+		DjvSystem.logWarning(Category.DESIGN, "Queued writes not supported on UDP connection " + this);
+		return false;
+	}
+
+	/**
+	 * Not supported for UDP, datagrams are sent one at a time with write().
+	 *
+	 * @return Always false.
+	 */
+	@Override
+	public boolean queueWrite(ByteBuffer[] buffers, AfxEventHandler handler) {
+		DjvSystem.logWarning(Category.DESIGN, "Queued writes not supported on UDP connection " + this);
+		return false;
+	}
+
+	/**
+	 * Initiates sending a batch of datagrams, each to its own destination. The
+	 * batch is flushed by the reactor thread without going through the FSM
+	 * per datagram, and completes once via AfxEventHandler.batchSent(), with
+	 * the failure of each destination recorded in the batch. Only one write
+	 * request, batched or not, will be accepted at any one time.
+	 *
+	 * @param batch The datagrams to send.
+	 * @param handler The event handler to receive the completion.
+	 * @return True if the request had been initiated, false if the request
+	 * failed to start some how.
+	 * @throws InterruptedException User interruption
+	 */
+	public boolean sendBatch(AfxSendBatch batch, AfxEventHandler handler) throws InterruptedException {
+		return domain.dispatchEvent(new AfxFsmEvent(AfxFsmEvent.WRITE, this, batch, handler), true);
+	}
+
+	/**
+	 * Accepts a write, or a send batch.
+	 *
+	 * @param evt The WRITE event.
+	 * @return True if the write is to proceed, false otherwise.
+	 */
+	@Override
+	synchronized boolean writeGuard(FsmEvent evt) {
+		AfxSendBatch requested = (evt instanceof AfxFsmEvent) ? ((AfxFsmEvent) evt).getSendBatch() : null;
+		if (null == requested) {
+			return super.writeGuard(evt);
+		}
+
+		m_WriteBuffer = null;
+		writeEventHandler = ((AfxFsmEvent) evt).getEventHandler();
+		sendBatch = requested;
+		sendBatchFlushed = false;
+		sendBatch.start();
+		return true;
+	}
+
+	@Override
+	void startQueuedWrites() {
+		// Never invoked, queueWrite() is rejected
+	}
+
 	@Override
 	void openComplete(FsmEvent evt) {
 		if (connectionventHandler != null) {
@@ -304,6 +811,10 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 
 	@Override
 	void readFailed(FsmEvent evt) {
+		traffic.readFailed();
+		synchronized (this) {
+			readStreaming = false;
+		}
 		if (readEventHandler != null) {
 			readEventHandler.readFailed();
 		}
@@ -311,6 +822,10 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 
 	@Override
 	void writeComplete(FsmEvent evt) {
+		if (completeSendBatch(null)) {
+			return;
+		}
+		traffic.messagesWritten(1);
 		if (null != writeEventHandler) {
 			writeEventHandler.writeCompleted();
 		}
@@ -318,6 +833,10 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 
 	@Override
 	void writeFailed(FsmEvent evt) {
+		if (completeSendBatch("Send batch aborted")) {
+			return;
+		}
+		traffic.writesFailed(1);
 		if (null != writeEventHandler) {
 			writeEventHandler.writeFailed();
 		}
@@ -325,12 +844,19 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 
 	@Override
 	void readWriteFailed(FsmEvent evt) {
+		traffic.readFailed();
+		synchronized (this) {
+			readStreaming = false;
+		}
 		if (readEventHandler != null) {
 			readEventHandler.readFailed();
 		}
 
-		if (null != writeEventHandler) {
-			writeEventHandler.writeFailed();
+		if (!completeSendBatch("Send batch aborted")) {
+			traffic.writesFailed(1);
+			if (null != writeEventHandler) {
+				writeEventHandler.writeFailed();
+			}
 		}
 	}
 
@@ -373,4 +899,34 @@ public class AfxConnectionUdp extends AfxConnection implements ReactorEventHandl
 	/** @link dependency */
 	/*# AfxFsmEvent lnkAfxFsmEvent; */
 	private int readFailCount = 0;
+
+	/**
+	 * The ring of the ongoing batch receive mode and its budget per select,
+	 * guarded by the lock on this connection
+	 */
+	private AfxDatagramBatch batch;
+	private int batchBudget;
+
+	/**
+	 * Whether the ring is being presented to the read handler, and whether the
+	 * leased buffers are to be released once it is, guarded by the lock on
+	 * this connection
+	 */
+	private boolean batchDelivering;
+	private boolean releasePending;
+
+	/**
+	 * The ongoing send batch, and whether it was flushed entirely, guarded by
+	 * the lock on this connection
+	 */
+	private AfxSendBatch sendBatch;
+	private boolean sendBatchFlushed;
+
+	/**
+	 * Multicast memberships, dropped as the channel closes, and the options of
+	 * the channel to be opened, guarded by the lock on this connection
+	 */
+	private final List<MembershipKey> memberships = new ArrayList<>();
+	private ProtocolFamily protocolFamily;
+	private boolean reuseAddress;
 }
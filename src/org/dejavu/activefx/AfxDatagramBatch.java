@@ -0,0 +1,143 @@
+package org.dejavu.activefx;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A ring of buffers leased from the buffer pool of a connection, into which a
+ * UDP connection in batch receive mode reads the datagrams pending on each
+ * select, see AfxConnectionUdp.receiveBatches(). The datagrams received are
+ * delivered to AfxEventHandler.datagramsReceived() whenever the ring is full,
+ * or nothing more is pending, after which the ring is reused for the next
+ * batch.
+ * <p>
+ * A datagram larger than the buffers is truncated, as per
+ * DatagramChannel.receive().
+ */
+public class AfxDatagramBatch {
+
+	/**
+	 * Creates a batch, leasing its buffers from the connection. The buffers are
+	 * given back with release(), or when the connection closes.
+	 *
+	 * @param connection The connection to lease the buffers from.
+	 * @param capacity The maximum number of datagrams per batch.
+	 * @param maxDatagramSize The size of each buffer, i.e. the largest datagram
+	 * received untruncated.
+	 */
+	public AfxDatagramBatch(AfxConnection connection, int capacity, int maxDatagramSize) {
+		this.connection = connection;
+		buffers = new ByteBuffer[Math.max(1, capacity)];
+		senders = new SocketAddress[buffers.length];
+		for (int i = 0; i < buffers.length; ++i) {
+			buffers[i] = connection.acquireBuffer(maxDatagramSize);
+		}
+	}
+
+	/**
+	 * Retrieves the number of datagrams in this batch.
+	 *
+	 * @return The number of datagrams.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Retrieves the maximum number of datagrams per batch.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return buffers.length;
+	}
+
+	/**
+	 * Retrieves a datagram. Only valid for the duration of the
+	 * datagramsReceived() call delivering this batch.
+	 *
+	 * @param index The index of the datagram, from zero to size() - 1.
+	 * @return The buffer holding the datagram, flipped to expose its content.
+	 */
+	public ByteBuffer getDatagram(int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException("Datagram " + index + " of " + count);
+		}
+		return buffers[index];
+	}
+
+	/**
+	 * Retrieves the sender of a datagram.
+	 *
+	 * @param index The index of the datagram, from zero to size() - 1.
+	 * @return The address the datagram was received from.
+	 */
+	public SocketAddress getSender(int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException("Datagram " + index + " of " + count);
+		}
+		return senders[index];
+	}
+
+	/**
+	 * Gives the buffers of this batch back to the connection they were leased
+	 * from. The batch must no longer be used, in particular not while the
+	 * connection is receiving into it.
+	 */
+	public void release() {
+		for (ByteBuffer buffer : buffers) {
+			connection.releaseBuffer(buffer);
+		}
+		count = 0;
+	}
+
+	/**
+	 * Empties the ring, ready to receive the next batch.
+	 */
+	void reset() {
+		for (int i = 0; i < count; ++i) {
+			buffers[i].clear();
+			senders[i] = null;
+		}
+		count = 0;
+	}
+
+	/**
+	 * Receives the next pending datagram into the ring.
+	 *
+	 * @param channel The channel to receive from.
+	 * @return The sender of the datagram, null if none was pending.
+	 * @throws IOException Failed to receive.
+	 */
+	SocketAddress receive(DatagramChannel channel) throws IOException {
+		ByteBuffer buffer = buffers[count];
+		SocketAddress sender = channel.receive(buffer);
+		if (null != sender) {
+			buffer.flip();
+			senders[count++] = sender;
+		}
+		return sender;
+	}
+
+	/**
+	 * Determines whether the ring is full, i.e. the batch must be delivered
+	 * before receiving more.
+	 *
+	 * @return True if full, false otherwise.
+	 */
+	boolean isFull() {
+		return count == buffers.length;
+	}
+
+	@Override
+	public String toString() {
+		return "AfxDatagramBatch:{size:" + count + ", capacity:" + buffers.length + ", connection:" + connection + "}";
+	}
+
+	private final AfxConnection connection;
+	private final ByteBuffer[] buffers;
+	private final SocketAddress[] senders;
+	private int count;
+}
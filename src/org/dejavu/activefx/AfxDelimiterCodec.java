@@ -0,0 +1,120 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames terminated by a delimiter, e.g. text lines. The delimiter is not part
+ * of the decoded frames. The decoder remembers how far it had scanned, so that
+ * a partial frame is not scanned over and over as more data comes in; an
+ * instance must only serve one connection.
+ */
+public class AfxDelimiterCodec implements AfxFrameDecoder, AfxFrameEncoder {
+
+	/**
+	 * Creates a new codec.
+	 *
+	 * @param delimiter The delimiter terminating each frame, at least one
+	 * byte.
+	 * @param maxFrameLength The maximum length of the frame content, larger
+	 * frames are rejected.
+	 */
+	public AfxDelimiterCodec(byte[] delimiter, int maxFrameLength) {
+		this(delimiter, maxFrameLength, false);
+	}
+
+	private AfxDelimiterCodec(byte[] delimiter, int maxFrameLength, boolean lines) {
+		if (delimiter.length < 1) {
+			throw new IllegalArgumentException("Empty delimiter");
+		}
+		this.delimiter = delimiter.clone();
+		this.delimiterBuffer = ByteBuffer.wrap(this.delimiter).asReadOnlyBuffer();
+		this.maxFrameLength = maxFrameLength;
+		this.lines = lines;
+	}
+
+	/**
+	 * Creates a codec for text lines. Lines are decoded when terminated by
+	 * either LF or CR-LF, and encoded with CR-LF.
+	 *
+	 * @param maxLineLength The maximum length of a line, excluding the line
+	 * terminator.
+	 * @return The new codec.
+	 */
+	public static AfxDelimiterCodec forLines(int maxLineLength) {
+		return new AfxDelimiterCodec("\r\n".getBytes(StandardCharsets.US_ASCII), maxLineLength, true);
+	}
+
+	@Override
+	public ByteBuffer decode(ByteBuffer in) throws AfxException {
+		int start = in.position();
+		int limit = in.limit();
+
+		// Lines only need to look for the LF, the CR is optional
+		byte[] target = lines ? LF : delimiter;
+		int found = -1;
+		for (int i = start + scanned; i <= limit - target.length; ++i) {
+			if (matches(in, i, target)) {
+				found = i;
+				break;
+			}
+		}
+
+		if (found < 0) {
+			// Next time resume from where a delimiter could still start
+			scanned = Math.max(0, limit - start - target.length + 1);
+			if (scanned > maxFrameLength + delimiter.length) {
+				throw new AfxException("Frame length exceeds " + maxFrameLength);
+			}
+			return null;
+		}
+
+		scanned = 0;
+		int end = found;
+		if (lines && (end > start) && (in.get(end - 1) == '\r')) {
+			--end;
+		}
+		if (end - start > maxFrameLength) {
+			throw new AfxException("Frame length " + (end - start) + " exceeds " + maxFrameLength);
+		}
+
+		ByteBuffer frame = in.slice();
+		frame.limit(end - start);
+		in.position(found + target.length);
+		return frame;
+	}
+
+	@Override
+	public ByteBuffer[] encode(ByteBuffer frame) throws AfxException {
+		if (frame.remaining() > maxFrameLength) {
+			throw new AfxException("Frame length " + frame.remaining() + " exceeds " + maxFrameLength);
+		}
+		return new ByteBuffer[]{frame, delimiterBuffer.duplicate()};
+	}
+
+	private static boolean matches(ByteBuffer in, int index, byte[] target) {
+		for (int i = 0; i < target.length; ++i) {
+			if (in.get(index + i) != target[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "{delimiterLength:" + delimiter.length + ", lines:" + lines + ", maxFrameLength:" + maxFrameLength + "}";
+	}
+
+	private static final byte[] LF = {'\n'};
+
+	private final byte[] delimiter;
+	private final ByteBuffer delimiterBuffer;
+	private final int maxFrameLength;
+	private final boolean lines;
+
+	/**
+	 * Number of bytes past the input position known not to start a delimiter
+	 */
+	private int scanned;
+}
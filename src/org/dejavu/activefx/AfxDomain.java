@@ -4,6 +4,14 @@ package org.dejavu.activefx;
 import org.dejavu.fsm.FsmException;
 import org.dejavu.util.DjvWatchDog;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.dejavu.fsm.FsmEvent;
 import org.dejavu.fsm.FsmState;
 import org.dejavu.fsm.FsmDomain;
@@ -25,9 +33,265 @@ public class AfxDomain {
 	 * @throws java.io.IOException
 	 */
 	public AfxDomain(String name, int maxChannels) throws FsmException, IOException {
+		this(name, maxChannels, 1);
+	}
+
+	/**
+	 * Creates a new instance of the Active FX engine, driven by a group of
+	 * reactors. Each connection created against this domain is assigned to one
+	 * of the reactors, and stays with that reactor for its whole life.
+	 *
+	 * @param name The name of this instance.
+	 * @param maxChannels The maximum number of channels supported by each
+	 * reactor. This allow the domain to limit the amount of resource allocated.
+	 * @param numReactors The number of reactors (and reactor threads) to run.
+	 * Zero or less means one reactor per available processor.
+	 * @throws FsmException
+	 * @throws java.io.IOException
+	 */
+	public AfxDomain(String name, int maxChannels, int numReactors) throws FsmException, IOException {
 		fsmDomain = new AfxConnectionFsmDomain(name);
 		this.name = name;
-		reactor = new AfxReactor(name, maxChannels);
+		if (numReactors < 1) {
+			numReactors = Runtime.getRuntime().availableProcessors();
+		}
+		reactors = new AfxReactor[numReactors];
+		if (numReactors == 1) {
+			reactors[0] = new AfxReactor(name, maxChannels);
+		} else {
+			for (int i = 0; i < numReactors; ++i) {
+				reactors[i] = new AfxReactor(name + i, maxChannels);
+			}
+		}
+	}
+
+	/**
+	 * Specifies how new connections are assigned to the reactors of this
+	 * domain. Only meaningful when the domain runs more than one reactor.
+	 *
+	 * @param assignment The new assignment policy, not null.
+	 * @return This object.
+	 */
+	public AfxDomain setReactorAssignment(ReactorAssignment assignment) {
+		synchronized (this) {
+			reactorAssignment = assignment;
+		}
+		return this;
+	}
+
+	/**
+	 * Specifies whether reactor interest changes (i.e. connections enabling and
+	 * disabling read/write/connect notifications) are queued to the reactor
+	 * threads instead of being applied by the calling threads. Queued mode
+	 * avoids waking up the reactors and contending for their monitors on every
+	 * read and write, at the cost of the change taking effect just before the
+	 * reactor's next select rather than immediately.
+	 *
+	 * @param value True for queued mode, false for immediate mode (default).
+	 * @return This object.
+	 */
+	public AfxDomain setQueuedInterestOps(boolean value) {
+		for (AfxReactor reactor : reactors) {
+			reactor.setQueuedInterestOps(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Specifies whether read/write completion and failure events detected by
+	 * the reactors are executed inline, i.e. the FSM transition (and thus the
+	 * client's AfxEventHandler callback) runs on the reactor thread instead of
+	 * being queued to the FSM dispatch thread. Events for any one connection
+	 * are still executed one at a time and in order: a completion only runs
+	 * inline when nothing else is pending for its connection. Clients enabling
+	 * this must not block in their read/write callbacks, as that would stall
+	 * every connection served by the same reactor. The callbacks are invoked
+	 * without holding the lock on any connection, so they may queue writes to
+	 * other connections, e.g. to relay data.
+	 *
+	 * @param value True to execute completions inline, false to queue them
+	 * (default).
+	 * @return This object.
+	 */
+	public AfxDomain setInlineCompletions(boolean value) {
+		inlineCompletions = value;
+		return this;
+	}
+
+	/**
+	 * Specifies the limit on the bytes queued for writing (see
+	 * AfxConnection.queueWrite()) but not yet written, over all connections of
+	 * this domain. Queued writes beyond this limit are rejected, so that slow
+	 * consumers cannot exhaust memory.
+	 *
+	 * @param value The new limit in bytes, by default unlimited.
+	 * @return This object.
+	 */
+	public AfxDomain setMaxPendingWriteBytes(long value) {
+		maxPendingWriteBytes = value;
+		return this;
+	}
+
+	/**
+	 * Retrieves the number of bytes queued for writing but not yet written,
+	 * over all connections of this domain.
+	 *
+	 * @return The number of pending bytes.
+	 */
+	public long getPendingWriteBytes() {
+		return pendingWriteBytes.get();
+	}
+
+	/**
+	 * Reserves room for bytes about to be queued for writing.
+	 *
+	 * @param bytes The number of bytes to be queued.
+	 * @return True if reserved, false if that would exceed the limit.
+	 */
+	boolean reservePendingWriteBytes(long bytes) {
+		long current;
+		do {
+			current = pendingWriteBytes.get();
+			if (current + bytes > maxPendingWriteBytes) {
+				return false;
+			}
+		} while (!pendingWriteBytes.compareAndSet(current, current + bytes));
+		return true;
+	}
+
+	/**
+	 * Releases room reserved for bytes queued for writing, as they are
+	 * written or dropped.
+	 *
+	 * @param bytes The number of bytes written or dropped.
+	 */
+	void releasePendingWriteBytes(long bytes) {
+		pendingWriteBytes.addAndGet(-bytes);
+	}
+
+	/**
+	 * Specifies the pool from which connections of this domain lease their
+	 * buffers. Must be set before creating any connection.
+	 *
+	 * @param pool The new buffer pool, not null. By default connections use
+	 * AfxBufferPool.getDefault().
+	 * @return This object.
+	 */
+	public AfxDomain setBufferPool(AfxBufferPool pool) {
+		bufferPool = pool;
+		return this;
+	}
+
+	/**
+	 * Retrieves the pool from which connections of this domain lease their
+	 * buffers.
+	 *
+	 * @return The buffer pool, never null.
+	 */
+	public AfxBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Specifies the executor running the delegated tasks of the TLS engines
+	 * of this domain's connections (e.g. certificate validation, key
+	 * exchange), so that they run neither on the reactor nor on a thread per
+	 * handshake. A task the executor rejects is run by the thread driving the
+	 * handshake instead.
+	 *
+	 * @param executor The new executor, not null. By default a bounded pool
+	 * shared by all domains, see getDefaultTaskExecutor().
+	 * @return This object.
+	 */
+	public AfxDomain setTaskExecutor(Executor executor) {
+		taskExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Retrieves the executor running the delegated tasks of the TLS engines
+	 * of this domain's connections.
+	 *
+	 * @return The executor, never null.
+	 */
+	public Executor getTaskExecutor() {
+		return taskExecutor;
+	}
+
+	/**
+	 * Retrieves the default executor for delegated tasks, shared by all
+	 * domains unless configured otherwise. It runs up to one daemon thread per
+	 * processor, idle threads time out, and at most 1024 tasks are queued.
+	 *
+	 * @return The default executor.
+	 */
+	public static Executor getDefaultTaskExecutor() {
+		return DefaultTaskExecutor.INSTANCE;
+	}
+
+	/**
+	 * Holder of the default task executor, created on first use.
+	 */
+	private static class DefaultTaskExecutor {
+
+		static final ThreadPoolExecutor INSTANCE;
+
+		static {
+			AtomicInteger threadCount = new AtomicInteger();
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			INSTANCE = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(1024), r -> {
+					Thread thread = new Thread(r, "AfxTask-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+			INSTANCE.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	/**
+	 * Retrieves a snapshot of the statistics of each reactor driving this
+	 * domain: select wait, ready keys per iteration, handler time per
+	 * operation type, and overflow of the maximum number of channels. The same
+	 * statistics are also exposed via JMX while the domain is running.
+	 *
+	 * @return The statistics snapshots, one per reactor.
+	 */
+	public List<AfxReactorStatistics> getReactorStatistics() {
+		List<AfxReactorStatistics> retValue = new ArrayList<>(reactors.length);
+		for (AfxReactor reactor : reactors) {
+			retValue.add(reactor.getStatistics());
+		}
+		return retValue;
+	}
+
+	/**
+	 * Retrieves a snapshot of the traffic statistics of all the connections
+	 * of this domain, along with the depth of its event queue.
+	 *
+	 * @return The statistics snapshot, never null.
+	 */
+	public AfxStatistics getStatistics() {
+		return traffic.snapshot(fsmDomain.getNumPendingEvents());
+	}
+
+	/**
+	 * Retrieves the traffic monitor the connections of this domain roll their
+	 * counts up into.
+	 *
+	 * @return The traffic monitor.
+	 */
+	AfxTrafficMonitor getTrafficMonitor() {
+		return traffic;
+	}
+
+	/**
+	 * Retrieves the number of reactors driving this domain.
+	 *
+	 * @return The number of reactors, at least one.
+	 */
+	public int getNumReactors() {
+		return reactors.length;
 	}
 
 	/**
@@ -40,7 +304,9 @@ public class AfxDomain {
 	 */
 	public void start(int reactorThreadPriority) {
 		fsmDomain.start(null, -1, null);
-		reactor.start(reactorThreadPriority);
+		for (AfxReactor reactor : reactors) {
+			reactor.start(reactorThreadPriority);
+		}
 	}
 
 	/**
@@ -58,14 +324,18 @@ public class AfxDomain {
 	 */
 	public void start(DjvWatchDog watchdog, int wdPeriod, Runnable failureResponse, int reactorThreadPriority) {
 		fsmDomain.start(watchdog, wdPeriod, failureResponse);
-		reactor.start(reactorThreadPriority);
+		for (AfxReactor reactor : reactors) {
+			reactor.start(reactorThreadPriority);
+		}
 	}
 
 	/**
 	 * Stops this Active FX engine.
 	 */
 	public void stop() {
-		reactor.stop();
+		for (AfxReactor reactor : reactors) {
+			reactor.stop();
+		}
 		fsmDomain.stop();
 	}
 
@@ -81,9 +351,62 @@ public class AfxDomain {
 	 * @throws java.lang.InterruptedException User interruption
 	 */
 	boolean dispatchEvent(FsmEvent event, boolean queued) throws InterruptedException {
+		if (queued && (event.getContext() instanceof AfxConnection)) {
+			// Keep track of the events pending for each connection, see dispatchCompletion
+			AfxConnection connection = (AfxConnection) event.getContext();
+			connection.queuedEvents.incrementAndGet();
+			if (fsmDomain.dispatchEvent(event, true)) {
+				return true;
+			}
+			connection.queuedEvents.decrementAndGet();
+			return false;
+		}
 		return fsmDomain.dispatchEvent(event, queued);
 	}
 
+	/**
+	 * Dispatches a completion event (read/write complete or failure) detected
+	 * by a reactor thread. If inline completions are enabled and the calling
+	 * thread is the reactor serving the connection, the event is handed to
+	 * that reactor, which executes it once the handler that detected it
+	 * returns (see executeCompletion()). Otherwise the event is queued.
+	 *
+	 * @param event The completion event to dispatch, targeting a connection.
+	 * @return True if the event had either been queued up, or handed to the
+	 * reactor. False if the event cannot be dispatched for any reason.
+	 * @throws java.lang.InterruptedException User interruption
+	 */
+	boolean dispatchCompletion(AfxFsmEvent event) throws InterruptedException {
+		if (inlineCompletions && ((AfxConnection) event.getContext()).reactor.deferCompletion(event)) {
+			return true;
+		}
+		return dispatchEvent(event, true);
+	}
+
+	/**
+	 * Executes a completion event handed to a reactor by dispatchCompletion().
+	 * Invoked by that reactor thread, while not holding the lock on any
+	 * connection. If no other event is pending for the same connection, the
+	 * transition is executed immediately, skipping the FSM event queue.
+	 * Otherwise the event is queued, behind the pending events, to preserve
+	 * the per-connection event order.
+	 *
+	 * @param event The completion event to execute, targeting a connection.
+	 * @throws java.lang.InterruptedException User interruption
+	 */
+	void executeCompletion(AfxFsmEvent event) throws InterruptedException {
+		AfxConnection connection = (AfxConnection) event.getContext();
+		synchronized (connection.transitionLock) {
+			if (connection.queuedEvents.get() == 0) {
+				fsmDomain.dispatchEvent(event, false);
+				return;
+			}
+		}
+		if (!dispatchEvent(event, true)) {
+			DjvSystem.logWarning(DjvLogMsg.Category.DESIGN, "Failed to dispatch " + event);
+		}
+	}
+
 	/**
 	 * Used internally by the Active FX framework to retrieve the initial state
 	 * for each Active FX FSM context.
@@ -113,7 +436,7 @@ public class AfxDomain {
 	 * Basically a bit map of the different OP values in the class SelectionKey.
 	 */
 	int getInterestOps(ReactorEventHandler handler) {
-		return reactor.getInterestOpsFor(handler);
+		return reactorFor(handler).getInterestOpsFor(handler);
 	}
 
 	/**
@@ -125,7 +448,7 @@ public class AfxDomain {
 	 * a bit map of the different OP values in the class SelectionKey.
 	 */
 	int getReadyOps(ReactorEventHandler handler) {
-		return reactor.getReadyOpsFor(handler);
+		return reactorFor(handler).getReadyOpsFor(handler);
 	}
 
 	/**
@@ -137,7 +460,7 @@ public class AfxDomain {
 	 * the different OP values in the class SelectionKey.
 	 */
 	void registerHandler(ReactorEventHandler handler, int events) {
-		reactor.registerHandler(handler, events);
+		reactorFor(handler).registerHandler(handler, events);
 	}
 
 	/**
@@ -149,7 +472,7 @@ public class AfxDomain {
 	 * the different OP values in the class SelectionKey.
 	 */
 	void deregisterHandler(ReactorEventHandler handler, int events) {
-		reactor.deregisterHandler(handler, events);
+		reactorFor(handler).deregisterHandler(handler, events);
 	}
 
 	/**
@@ -158,14 +481,88 @@ public class AfxDomain {
 	 * @param handler Handler to be removed.
 	 */
 	void removeHandler(ReactorEventHandler handler) {
-		reactor.removeHandler(handler);
+		reactorFor(handler).removeHandler(handler);
+	}
+
+	/**
+	 * Picks the reactor for a new connection, according to the current
+	 * assignment policy. Used internally when a connection is created; the
+	 * connection keeps the returned reactor for its whole life.
+	 *
+	 * @return The reactor to be used by the new connection, never null.
+	 */
+	AfxReactor assignReactor() {
+		if (reactors.length == 1) {
+			return reactors[0];
+		}
+
+		ReactorAssignment assignment;
+		int start;
+		synchronized (this) {
+			assignment = reactorAssignment;
+			start = nextReactor;
+			nextReactor = (nextReactor + 1) % reactors.length;
+		}
+
+		AfxReactor retValue = reactors[start];
+		if (assignment == ReactorAssignment.LEAST_LOADED) {
+			// Scan from the round-robin position so that ties (e.g. a burst of
+			// new connections not yet registered) are still spread evenly.
+			int minLoad = retValue.getLoad();
+			for (int i = 1; (i < reactors.length) && (minLoad > 0); ++i) {
+				AfxReactor candidate = reactors[(start + i) % reactors.length];
+				int load = candidate.getLoad();
+				if (load < minLoad) {
+					minLoad = load;
+					retValue = candidate;
+				}
+			}
+		}
+		return retValue;
+	}
+
+	/**
+	 * Locates the reactor serving a particular handler. Connections are served
+	 * by the reactor assigned to them at creation, everything else (e.g.
+	 * acceptors) by the first reactor.
+	 *
+	 * @param handler The target handler
+	 * @return The reactor serving the given handler, never null.
+	 */
+	private AfxReactor reactorFor(ReactorEventHandler handler) {
+		if (handler instanceof AfxConnection) {
+			return ((AfxConnection) handler).reactor;
+		}
+		return reactors[0];
+	}
+
+	/**
+	 * Policies for assigning new connections to the reactors of a domain.
+	 */
+	public static enum ReactorAssignment {
+		/**
+		 * Cycles through the reactors in turn.
+		 */
+		ROUND_ROBIN,
+		/**
+		 * Picks the reactor currently serving the fewest channels.
+		 */
+		LEAST_LOADED
 	}
 
 	/**
 	 * @link aggregation
-	 * @supplierCardinality 1
+	 * @supplierCardinality 1..*
 	 */
-	private final AfxReactor reactor;
+	private final AfxReactor[] reactors;
+	private ReactorAssignment reactorAssignment = ReactorAssignment.ROUND_ROBIN;
+	private volatile boolean inlineCompletions;
+	private volatile AfxBufferPool bufferPool = AfxBufferPool.getDefault();
+	private volatile Executor taskExecutor = getDefaultTaskExecutor();
+	private volatile long maxPendingWriteBytes = Long.MAX_VALUE;
+	private final AtomicLong pendingWriteBytes = new AtomicLong();
+	private final AfxTrafficMonitor traffic = new AfxTrafficMonitor(AfxTrafficMonitor.getGlobal());
+	private int nextReactor;
 
 	/**
 	 * @supplierCardinality 1
@@ -0,0 +1,105 @@
+package org.dejavu.activefx;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.dejavu.fsm.FsmException;
+import org.dejavu.util.DjvExceptionUtil;
+import org.dejavu.util.DjvLogMsg;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * Measures the heap allocated per read completion on the FSM dispatch path,
+ * comparing a newly allocated AfxFsmEvent per message (as done prior to the
+ * per-connection completion events) with the connection's pre-allocated
+ * completion event. Transitions are executed by the calling thread so that
+ * the per-thread allocation counter captures the whole dispatch.
+ * <p>
+ * Only the synchronous path, dispatchEvent(event, false), is measured. The
+ * queued path, through which the reactor threads actually dispatch their
+ * completions, saves the same event allocation per message, but also hands
+ * the event over to the FSM dispatch thread, whose allocations this
+ * per-thread measurement does not capture.
+ */
+public class AfxEventAllocationTester {
+
+	private final AfxDomain domain;
+	private final AfxConnectionTcp connection;
+	private volatile AfxFsmEvent lastEvent;
+
+	/**
+	 * Creates a test instance.
+	 *
+	 * @throws FsmException
+	 * @throws IOException
+	 */
+	public AfxEventAllocationTester() throws FsmException, IOException {
+		domain = new AfxDomain("AllocTest", 16);
+		connection = new AfxConnectionTcp(domain);
+	}
+
+	/**
+	 * Dispatches a number of READ_COMPLETE events.
+	 *
+	 * @param numMsgs The number of events to dispatch.
+	 * @param reuse Whether to dispatch the connection's pre-allocated event,
+	 * or allocate a new one for each message.
+	 * @return The number of bytes allocated by the calling thread.
+	 * @throws InterruptedException
+	 */
+	private long run(int numMsgs, boolean reuse) throws InterruptedException {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		long start = allocatedBytes(threadBean, tid);
+		for (int i = 0; i < numMsgs; ++i) {
+			connection.setCurrentState(AfxConnectionFsmDomain.AFX_READING);
+			AfxFsmEvent event = reuse ? connection.readCompleteEvent : new AfxFsmEvent(AfxFsmEvent.READ_COMPLETE, connection);
+			domain.dispatchEvent(event, false);
+
+			// On the real (queued) path the event escapes into the FSM event
+			// queue, don't let the JIT optimize the allocation away here.
+			lastEvent = event;
+		}
+		return allocatedBytes(threadBean, tid) - start;
+	}
+
+	private static long allocatedBytes(ThreadMXBean threadBean, long tid) {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(tid);
+		}
+		return -1;
+	}
+
+	/**
+	 * Conducts the test
+	 *
+	 * @throws InterruptedException
+	 */
+	void test() throws InterruptedException {
+		domain.start(5);
+		try {
+			int numMsgs = 1000000;
+
+			// Warm up both paths first
+			run(numMsgs, false);
+			run(numMsgs, true);
+
+			long allocating = run(numMsgs, false);
+			long reusing = run(numMsgs, true);
+			DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, String.format("Allocated %.1f bytes/msg with a new event per message, %.1f bytes/msg with pre-allocated events",
+				(double) allocating / numMsgs, (double) reusing / numMsgs));
+		} finally {
+			domain.stop();
+		}
+	}
+
+	public static void main(String[] args) {
+		try {
+			DjvSystem.setLogLevel(2);
+			new AfxEventAllocationTester().test();
+		} catch (InterruptedException ex) {
+		} catch (IOException | FsmException ex) {
+			DjvSystem.logWarning(DjvLogMsg.Category.DESIGN, DjvExceptionUtil.simpleTrace(ex));
+		}
+	}
+}
@@ -38,6 +38,47 @@ public interface AfxEventHandler {
 		DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, "Read completed " + this);
 	}
 
+	/**
+	 * More data had been read in by a streaming read. Invoked by the reactor
+	 * thread (or the thread resuming the stream), without holding the lock on
+	 * the connection, so it may write to other connections, but must not
+	 * block. The handler consumes data by advancing the position of the
+	 * buffer, the bytes not consumed are presented again, ahead of the next
+	 * chunk read in. The default implementation discards all the data.
+	 *
+	 * @param buffer The buffer given to the streaming read request, flipped to
+	 * expose the data available. Only valid for the duration of the call.
+	 */
+	default void dataAvailable(ByteBuffer buffer) {
+		DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, "Data available " + this);
+		buffer.position(buffer.limit());
+	}
+
+	/**
+	 * A whole frame had been received, via AfxCodecPipeline. Invoked as
+	 * dataAvailable() is, must not block. The default implementation discards
+	 * the frame.
+	 *
+	 * @param frame The frame content, a slice of the read buffer. Only valid
+	 * for the duration of the call.
+	 */
+	default void frameReceived(ByteBuffer frame) {
+		DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, "Frame received " + this);
+	}
+
+	/**
+	 * A batch of datagrams had been received by a UDP connection in batch
+	 * receive mode, see AfxConnectionUdp.receiveBatches(). Invoked by the
+	 * reactor thread, without holding the lock on the connection, must not
+	 * block. The default implementation discards the datagrams.
+	 *
+	 * @param batch The datagrams received, along with their senders. Only valid
+	 * for the duration of the call, the ring is reused for the next batch.
+	 */
+	default void datagramsReceived(AfxDatagramBatch batch) {
+		DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, "Datagrams received " + this);
+	}
+
 	/**
 	 * The previous write request is completed.
 	 */
@@ -45,6 +86,55 @@ public interface AfxEventHandler {
 		DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, "Write completed " + this);
 	}
 
+	/**
+	 * A send batch completed, see AfxConnectionUdp.sendBatch(). The datagrams
+	 * that failed, if any, are recorded in the batch. The default
+	 * implementation invokes writeCompleted if all datagrams were sent,
+	 * writeFailed otherwise.
+	 *
+	 * @param batch The batch sent.
+	 */
+	default void batchSent(AfxSendBatch batch) {
+		if (0 == batch.getFailureCount()) {
+			writeCompleted();
+		} else {
+			writeFailed();
+		}
+	}
+
+	/**
+	 * A number of queued writes completed, in the order they were queued. The
+	 * default implementation invokes writeCompleted once per write.
+	 *
+	 * @param numWrites The number of writes completed, at least one.
+	 */
+	default void writesCompleted(int numWrites) {
+		for (int i = 0; i < numWrites; ++i) {
+			writeCompleted();
+		}
+	}
+
+	/**
+	 * A number of queued writes failed, or were dropped due to the connection
+	 * closing. The default implementation invokes writeFailed once.
+	 *
+	 * @param numWrites The number of writes failed, at least one.
+	 */
+	default void writesFailed(int numWrites) {
+		writeFailed();
+	}
+
+	/**
+	 * The connection turned unwritable, or writable again, as the bytes pending
+	 * in its outbound queue crossed its write watermarks. Producers should hold
+	 * off queuing writes while the connection is unwritable.
+	 *
+	 * @param writable True if now writable, false otherwise.
+	 */
+	default void writabilityChanged(boolean writable) {
+		DjvSystem.logInfo(DjvLogMsg.Category.DESIGN, "Writability changed to " + writable + " " + this);
+	}
+
 	/**
 	 * A new Active FX connection had been accepted and created.
 	 *
@@ -0,0 +1,41 @@
+package org.dejavu.activefx;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * State of a file transfer initiated via AfxConnectionTcp.sendFile().
+ */
+final class AfxFileTransfer {
+
+	/**
+	 * Creates a new transfer.
+	 *
+	 * @param file The file to send from.
+	 * @param position The position in the file of the first byte to send.
+	 * @param count The number of bytes to send.
+	 */
+	AfxFileTransfer(FileChannel file, long position, long count) {
+		this.file = file;
+		this.position = position;
+		this.remaining = count;
+	}
+
+	/**
+	 * Accounts for some bytes having been sent.
+	 *
+	 * @param bytes The number of bytes sent.
+	 */
+	void transferred(long bytes) {
+		position += bytes;
+		remaining -= bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "{file:" + file + ", position:" + position + ", remaining:" + remaining + "}";
+	}
+
+	final FileChannel file;
+	long position;
+	long remaining;
+}
@@ -0,0 +1,27 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts frames from a stream of bytes, for use with AfxCodecPipeline.
+ * Decoders work in place on the cumulative read buffer, frames are returned as
+ * slices of it without copying. A decoder may keep state between calls, an
+ * instance must only serve one connection.
+ */
+public interface AfxFrameDecoder {
+
+	/**
+	 * Extracts the next frame from the input.
+	 *
+	 * @param in The input, containing the bytes from its position to its
+	 * limit. If a whole frame is available, the position is advanced past it,
+	 * otherwise it is left unchanged.
+	 * @return A slice of the input containing the frame content (i.e. minus
+	 * the framing), null if the input does not yet contain a whole frame. The
+	 * slice shares the content of the input, and is only valid until the input
+	 * is modified.
+	 * @throws AfxException The input is malformed, e.g. the frame exceeds the
+	 * maximum length allowed. The stream cannot be decoded any further.
+	 */
+	ByteBuffer decode(ByteBuffer in) throws AfxException;
+}
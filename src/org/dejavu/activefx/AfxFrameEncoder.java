@@ -0,0 +1,22 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Adds framing to outbound messages, for use with AfxCodecPipeline. Encoders
+ * do not copy the frame content, they produce the framing as separate buffers
+ * written along with the content (typically in a single gathering write).
+ */
+public interface AfxFrameEncoder {
+
+	/**
+	 * Encodes a frame.
+	 *
+	 * @param frame The frame content, from its position to its limit.
+	 * @return The buffers to write, in order, one of which is the given frame
+	 * buffer itself.
+	 * @throws AfxException The frame cannot be encoded, e.g. exceeds the
+	 * maximum length allowed.
+	 */
+	ByteBuffer[] encode(ByteBuffer frame) throws AfxException;
+}
@@ -16,7 +16,11 @@ import java.nio.channels.SelectableChannel;
  * <li>Event Handler</li>
  * <li>IP Address</li>
  * <li>IP Port</li>
+ * <li>Transfer</li>
  * </ul>
+ * Events are immutable once created, which allows events without any of the
+ * optional attributes (e.g. read/write completions) to be created once per
+ * connection and dispatched over and over.
  */
 class AfxFsmEvent implements FsmEvent {
 
@@ -84,6 +88,18 @@ class AfxFsmEvent implements FsmEvent {
 	 * For Registering a ServerSocketAccept
 	 */
 	final static int CONNECT = 16;
+	/**
+	 * Some queued writes completed or failed
+	 */
+	final static int QUEUED_WRITE_COMPLETE = 17;
+	/**
+	 * Initiate streaming read request.
+	 */
+	final static int READ_STREAM = 18;
+	/**
+	 * Initiate file transfer request.
+	 */
+	final static int SEND_FILE = 19;
 
 	/**
 	 * Creates a new AfxFsmEvent, for general usage.
@@ -97,6 +113,13 @@ class AfxFsmEvent implements FsmEvent {
 		channel = null;
 		ipPort = -1;
 		ipAddr = null;
+		cause = null;
+		buffer = null;
+		eventHandler = null;
+		transfer = null;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
 	}
 
 	/**
@@ -113,6 +136,12 @@ class AfxFsmEvent implements FsmEvent {
 		channel = null;
 		ipPort = -1;
 		ipAddr = null;
+		buffer = null;
+		eventHandler = null;
+		transfer = null;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
 	}
 
 	/**
@@ -132,6 +161,12 @@ class AfxFsmEvent implements FsmEvent {
 		this.ipPort = ipPort;
 		eventHandler = handler;
 		channel = null;
+		cause = null;
+		buffer = null;
+		transfer = null;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
 	}
 
 	/**
@@ -153,6 +188,12 @@ class AfxFsmEvent implements FsmEvent {
 		this.ipPort = ipPort;
 		eventHandler = handler;
 		channel = null;
+		cause = null;
+		buffer = null;
+		transfer = null;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
 	}
 
 	/**
@@ -172,6 +213,11 @@ class AfxFsmEvent implements FsmEvent {
 		channel = null;
 		ipPort = -1;
 		ipAddr = null;
+		cause = null;
+		transfer = null;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
 	}
 
 	/**
@@ -190,6 +236,85 @@ class AfxFsmEvent implements FsmEvent {
 		eventHandler = handler;
 		ipPort = -1;
 		ipAddr = null;
+		cause = null;
+		buffer = null;
+		transfer = null;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
+	}
+
+	/**
+	 * Creates a new AfxFsmEvent, for use with file transfer requests.
+	 *
+	 * @param id The event ID
+	 * @param context The FSM context to receive this event
+	 * @param transfer The file transfer to perform.
+	 * @param handler The interface to the callback object for receiving
+	 * write events.
+	 */
+	AfxFsmEvent(int id, FsmContext context, AfxFileTransfer transfer, AfxEventHandler handler) {
+		this.id = id;
+		this.context = context;
+		this.transfer = transfer;
+		sendBatch = null;
+		receiveBatch = null;
+		receiveBudget = 0;
+		eventHandler = handler;
+		channel = null;
+		ipPort = -1;
+		ipAddr = null;
+		cause = null;
+		buffer = null;
+	}
+
+	/**
+	 * Creates a new AfxFsmEvent, for use with send batch requests.
+	 *
+	 * @param id The event ID
+	 * @param context The FSM context to receive this event
+	 * @param sendBatch The datagrams to send.
+	 * @param handler The interface to the callback object for receiving
+	 * write events.
+	 */
+	AfxFsmEvent(int id, FsmContext context, AfxSendBatch sendBatch, AfxEventHandler handler) {
+		this.id = id;
+		this.context = context;
+		this.sendBatch = sendBatch;
+		receiveBatch = null;
+		receiveBudget = 0;
+		eventHandler = handler;
+		channel = null;
+		ipPort = -1;
+		ipAddr = null;
+		cause = null;
+		buffer = null;
+		transfer = null;
+	}
+
+	/**
+	 * Creates a new AfxFsmEvent, for use with batch receive requests.
+	 *
+	 * @param id The event ID
+	 * @param context The FSM context to receive this event
+	 * @param receiveBatch The batch to receive into.
+	 * @param receiveBudget The maximum number of datagrams received per select.
+	 * @param handler The interface to the callback object for receiving
+	 * read events.
+	 */
+	AfxFsmEvent(int id, FsmContext context, AfxDatagramBatch receiveBatch, int receiveBudget, AfxEventHandler handler) {
+		this.id = id;
+		this.context = context;
+		this.receiveBatch = receiveBatch;
+		this.receiveBudget = receiveBudget;
+		eventHandler = handler;
+		channel = null;
+		ipPort = -1;
+		ipAddr = null;
+		cause = null;
+		buffer = null;
+		transfer = null;
+		sendBatch = null;
 	}
 
 	/**
@@ -214,6 +339,50 @@ class AfxFsmEvent implements FsmEvent {
 		return buffer;
 	}
 
+	/**
+	 * Retrieves the <I>Transfer</I> attribute. This attribute is set once in
+	 * one of the constructors.
+	 *
+	 * @return The file transfer representing the <I>Transfer</I> attribute,
+	 * null if not set.
+	 */
+	AfxFileTransfer getTransfer() {
+		return transfer;
+	}
+
+	/**
+	 * Retrieves the <I>Send Batch</I> attribute. This attribute is set once in
+	 * one of the constructors.
+	 *
+	 * @return The send batch representing the <I>Send Batch</I> attribute,
+	 * null if not set.
+	 */
+	AfxSendBatch getSendBatch() {
+		return sendBatch;
+	}
+
+	/**
+	 * Retrieves the <I>Receive Batch</I> attribute. This attribute is set once
+	 * in one of the constructors.
+	 *
+	 * @return The batch representing the <I>Receive Batch</I> attribute, null
+	 * if not set.
+	 */
+	AfxDatagramBatch getReceiveBatch() {
+		return receiveBatch;
+	}
+
+	/**
+	 * Retrieves the <I>Receive Budget</I> attribute. This attribute is set once
+	 * in one of the constructors.
+	 *
+	 * @return The maximum number of datagrams received per select, 0 if not
+	 * set.
+	 */
+	int getReceiveBudget() {
+		return receiveBudget;
+	}
+
 	/**
 	 * Retrieves the <I>Event Handler</I> attribute. This attribute is set once
 	 * in one of the constructors.
@@ -268,6 +437,15 @@ class AfxFsmEvent implements FsmEvent {
 			case CONNECT:
 				retValue.append("CONNECT");
 				break;
+			case QUEUED_WRITE_COMPLETE:
+				retValue.append("QUEUED_WRITE_COMPLETE");
+				break;
+			case READ_STREAM:
+				retValue.append("READ_STREAM");
+				break;
+			case SEND_FILE:
+				retValue.append("SEND_FILE");
+				break;
 			default:
 				retValue.append("UNKNOWN");
 		}
@@ -294,11 +472,15 @@ class AfxFsmEvent implements FsmEvent {
 	public final String ipAddr;
 	public final int ipPort;
 	
-	private String cause;
-	private ByteBuffer buffer = null;
+	private final String cause;
+	private final ByteBuffer buffer;
+	private final AfxFileTransfer transfer;
+	private final AfxSendBatch sendBatch;
+	private final AfxDatagramBatch receiveBatch;
+	private final int receiveBudget;
 
 	/**
 	 * @supplierCardinality 1
 	 */
-	private AfxEventHandler eventHandler = null;
+	private final AfxEventHandler eventHandler;
 }
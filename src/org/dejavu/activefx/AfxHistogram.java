@@ -0,0 +1,53 @@
+package org.dejavu.activefx;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low-overhead histogram with power-of-two buckets, for recording latencies
+ * (in nanoseconds) and counts. Bucket zero holds the value zero, bucket i
+ * (i &gt; 0) holds values in the range [2^(i-1), 2^i - 1]. Designed for a single
+ * writer (e.g. a reactor thread) with any number of concurrent readers: no
+ * lock or atomic read-modify-write is used when recording.
+ */
+final class AfxHistogram {
+
+	/**
+	 * Records a value. Must only be invoked by the single writer thread.
+	 *
+	 * @param value The value to record, negative values are recorded as zero.
+	 */
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		int bucket = 64 - Long.numberOfLeadingZeros(value);
+		buckets.lazySet(bucket, buckets.get(bucket) + 1);
+		sum += value;
+		if (value > max) {
+			max = value;
+		}
+		// Count last, readers use it as the reference point
+		count++;
+	}
+
+	/**
+	 * Takes a snapshot of the current content of this histogram. May be
+	 * invoked by any thread, the result is consistent to within the few
+	 * values being recorded concurrently.
+	 *
+	 * @return The snapshot, never null.
+	 */
+	AfxHistogramSnapshot snapshot() {
+		long[] counts = new long[AfxHistogramSnapshot.NUM_BUCKETS];
+		long snapCount = count;
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] = buckets.get(i);
+		}
+		return new AfxHistogramSnapshot(counts, snapCount, sum, max);
+	}
+
+	private final AtomicLongArray buckets = new AtomicLongArray(AfxHistogramSnapshot.NUM_BUCKETS);
+	private volatile long count;
+	private volatile long sum;
+	private volatile long max;
+}
@@ -0,0 +1,125 @@
+package org.dejavu.activefx;
+
+/**
+ * Immutable snapshot of a histogram with power-of-two buckets, as used by the
+ * Active FX statistics. Bucket zero holds the value zero, bucket i (i &gt; 0)
+ * holds values in the range [2^(i-1), 2^i - 1]. Percentiles are therefore
+ * approximate, to within a factor of two.
+ */
+public final class AfxHistogramSnapshot {
+
+	/**
+	 * Number of buckets in all histograms.
+	 */
+	public static final int NUM_BUCKETS = 65;
+
+	/**
+	 * Creates a new snapshot.
+	 *
+	 * @param bucketCounts The count of values recorded in each bucket.
+	 * @param count The total number of values recorded.
+	 * @param sum The sum of all values recorded.
+	 * @param max The largest value recorded.
+	 */
+	AfxHistogramSnapshot(long[] bucketCounts, long count, long sum, long max) {
+		this.bucketCounts = bucketCounts.clone();
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	/**
+	 * Retrieves the upper bound (inclusive) of a bucket.
+	 *
+	 * @param bucket The bucket index.
+	 * @return The largest value recorded into the given bucket.
+	 */
+	public static long getBucketUpperBound(int bucket) {
+		if (bucket <= 0) {
+			return 0;
+		}
+		return bucket >= 64 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/**
+	 * Retrieves the count of values recorded in each bucket.
+	 *
+	 * @return A copy of the bucket counts, NUM_BUCKETS long.
+	 */
+	public long[] getBucketCounts() {
+		return bucketCounts.clone();
+	}
+
+	/**
+	 * Retrieves the total number of values recorded.
+	 *
+	 * @return The number of values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Retrieves the sum of all values recorded.
+	 *
+	 * @return The sum.
+	 */
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * Retrieves the largest value recorded.
+	 *
+	 * @return The maximum, zero if nothing was recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Retrieves the average of all values recorded.
+	 *
+	 * @return The mean, zero if nothing was recorded.
+	 */
+	public double getMean() {
+		return count > 0 ? ((double) sum / (double) count) : 0.0;
+	}
+
+	/**
+	 * Estimates a percentile, as the upper bound of the bucket in which it
+	 * falls (capped by the maximum).
+	 *
+	 * @param percentile The percentile, in the range 0.0-100.0.
+	 * @return The estimated value, zero if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for (long bucketCount : bucketCounts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(total * (percentile / 100.0));
+		long accumulated = 0;
+		for (int i = 0; i < bucketCounts.length; ++i) {
+			accumulated += bucketCounts[i];
+			if ((accumulated >= target) && (accumulated > 0)) {
+				return Math.min(getBucketUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "{count:" + count + ", mean:" + (long) getMean() + ", p50:" + getPercentile(50.0) + ", p99:" + getPercentile(99.0) + ", max:" + max + '}';
+	}
+
+	private final long[] bucketCounts;
+	private final long count;
+	private final long sum;
+	private final long max;
+}
@@ -0,0 +1,74 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames prefixed with a fixed-length, big-endian length field. The length
+ * field holds the length of the frame content, excluding the field itself.
+ */
+public class AfxLengthFieldCodec implements AfxFrameDecoder, AfxFrameEncoder {
+
+	/**
+	 * Creates a new codec.
+	 *
+	 * @param fieldLength The length in bytes of the length field, one of 1, 2,
+	 * 3 or 4.
+	 * @param maxFrameLength The maximum length of the frame content, larger
+	 * frames are rejected.
+	 */
+	public AfxLengthFieldCodec(int fieldLength, int maxFrameLength) {
+		if ((fieldLength < 1) || (fieldLength > 4)) {
+			throw new IllegalArgumentException("Invalid length field size " + fieldLength);
+		}
+		this.fieldLength = fieldLength;
+		this.maxFrameLength = (fieldLength < 4) ? Math.min(maxFrameLength, (1 << (fieldLength * 8)) - 1) : maxFrameLength;
+	}
+
+	@Override
+	public ByteBuffer decode(ByteBuffer in) throws AfxException {
+		int start = in.position();
+		if (in.remaining() < fieldLength) {
+			return null;
+		}
+
+		int length = 0;
+		for (int i = 0; i < fieldLength; ++i) {
+			length = (length << 8) | (in.get(start + i) & 0xff);
+		}
+		if ((length < 0) || (length > maxFrameLength)) {
+			throw new AfxException("Frame length " + length + " exceeds " + maxFrameLength);
+		}
+		if (in.remaining() < fieldLength + length) {
+			return null;
+		}
+
+		in.position(start + fieldLength);
+		ByteBuffer frame = in.slice();
+		frame.limit(length);
+		in.position(start + fieldLength + length);
+		return frame;
+	}
+
+	@Override
+	public ByteBuffer[] encode(ByteBuffer frame) throws AfxException {
+		int length = frame.remaining();
+		if (length > maxFrameLength) {
+			throw new AfxException("Frame length " + length + " exceeds " + maxFrameLength);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(fieldLength);
+		for (int i = fieldLength - 1; i >= 0; --i) {
+			header.put((byte) (length >>> (i * 8)));
+		}
+		header.flip();
+		return new ByteBuffer[]{header, frame};
+	}
+
+	@Override
+	public String toString() {
+		return "{fieldLength:" + fieldLength + ", maxFrameLength:" + maxFrameLength + "}";
+	}
+
+	private final int fieldLength;
+	private final int maxFrameLength;
+}
@@ -0,0 +1,124 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Per-connection queue of outbound buffers, for queued writes. Producers may
+ * add buffers from any thread, the connection's reactor thread drains them.
+ * All methods are thread-safe.
+ */
+final class AfxOutboundQueue {
+
+	/**
+	 * Creates a new queue.
+	 *
+	 * @param domain The domain of the connection, in which room is reserved
+	 * for the bytes before they are added to this queue, and released here as
+	 * they are written or dropped.
+	 */
+	AfxOutboundQueue(AfxDomain domain) {
+		this.domain = domain;
+	}
+
+	/**
+	 * Adds a buffer to the tail of the queue.
+	 *
+	 * @param buffer The buffer to add, its remaining bytes are to be written.
+	 * Room for them must have been reserved in the domain.
+	 * @return True if the queue was empty prior to this addition, i.e. the
+	 * connection must be told to start flushing, false otherwise.
+	 */
+	synchronized boolean offer(ByteBuffer buffer) {
+		boolean wasEmpty = buffers.isEmpty();
+		buffers.addLast(buffer);
+		pendingBytes += buffer.remaining();
+		return wasEmpty;
+	}
+
+	/**
+	 * Copies the buffers at the head of the queue into an array, e.g. for a
+	 * gathering write. The buffers are not removed from the queue.
+	 *
+	 * @param dest The array to receive the buffers.
+	 * @return The number of buffers copied, zero if the queue is empty.
+	 */
+	synchronized int gather(ByteBuffer[] dest) {
+		int count = 0;
+		for (ByteBuffer buffer : buffers) {
+			if (count >= dest.length) {
+				break;
+			}
+			dest[count++] = buffer;
+		}
+		return count;
+	}
+
+	/**
+	 * Retrieves the buffer at the head of the queue, without removing it.
+	 *
+	 * @return The head buffer, null if the queue is empty.
+	 */
+	synchronized ByteBuffer peek() {
+		return buffers.peekFirst();
+	}
+
+	/**
+	 * Accounts for some bytes having been written from the head of the queue,
+	 * removing the buffers that are now completely written.
+	 *
+	 * @param numBytes The number of bytes written.
+	 * @return The number of buffers completely written and removed.
+	 */
+	synchronized int written(long numBytes) {
+		pendingBytes -= numBytes;
+		domain.releasePendingWriteBytes(numBytes);
+		int completed = 0;
+		ByteBuffer head;
+		while ((null != (head = buffers.peekFirst())) && !head.hasRemaining()) {
+			buffers.removeFirst();
+			++completed;
+		}
+		return completed;
+	}
+
+	/**
+	 * Drops all buffers from the queue.
+	 *
+	 * @return The number of buffers dropped.
+	 */
+	synchronized int clear() {
+		int dropped = buffers.size();
+		buffers.clear();
+		domain.releasePendingWriteBytes(pendingBytes);
+		pendingBytes = 0;
+		return dropped;
+	}
+
+	/**
+	 * Determines whether there is anything left to write.
+	 *
+	 * @return True if the queue is empty, false otherwise.
+	 */
+	synchronized boolean isEmpty() {
+		return buffers.isEmpty();
+	}
+
+	/**
+	 * Retrieves the number of bytes queued but not yet written.
+	 *
+	 * @return The number of pending bytes.
+	 */
+	synchronized long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "{buffers:" + buffers.size() + ", pendingBytes:" + pendingBytes + "}";
+	}
+
+	private final AfxDomain domain;
+	private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+	private long pendingBytes;
+}
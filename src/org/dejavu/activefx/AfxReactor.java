@@ -8,7 +8,10 @@ import java.io.IOException;
 import java.nio.channels.*;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayDeque;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The central concept of the Reactor pattern. These are active objects that
@@ -27,6 +30,8 @@ class AfxReactor implements Runnable {
 		this.name = name;
 		maxChannels = 5120;
 		selector = Selector.open();
+		monitor = new AfxReactorMonitor(this, name);
+		timingWheel = new AfxTimingWheel(TIMER_TICK_MS, TIMER_SLOTS, currentTimeMs());
 	}
 
 	/**
@@ -41,6 +46,8 @@ class AfxReactor implements Runnable {
 		this.name = name;
 		this.maxChannels = maxChannels;
 		selector = Selector.open();
+		monitor = new AfxReactorMonitor(this, name);
+		timingWheel = new AfxTimingWheel(TIMER_TICK_MS, TIMER_SLOTS, currentTimeMs());
 	}
 
 	/**
@@ -50,16 +57,22 @@ class AfxReactor implements Runnable {
 	 * @return The interested operation associated with the given handler.
 	 * Basically a bit map of the different OP values in the class SelectionKey.
 	 */
-	public synchronized int getInterestOpsFor(ReactorEventHandler handler) {
-		selector.wakeup();
-		SelectableChannel channel = handler.getHandle();
-		SelectionKey key = channel != null ? channel.keyFor(selector) : null;
-		if (key != null) {
-			if (key.isValid()) {
-				return key.interestOps();
+	public int getInterestOpsFor(ReactorEventHandler handler) {
+		if (queuedInterestOps) {
+			// Lock-free snapshot, may not yet reflect changes still queued
+			try {
+				SelectionKey key = keyFor(handler);
+				return key != null ? key.interestOps() : 0;
+			} catch (CancelledKeyException e) {
+				return 0;
 			}
 		}
-		return 0;
+
+		synchronized (this) {
+			selector.wakeup();
+			SelectionKey key = keyFor(handler);
+			return key != null ? key.interestOps() : 0;
+		}
 	}
 
 	/**
@@ -69,16 +82,140 @@ class AfxReactor implements Runnable {
 	 * @return The ready operation associated with the given handler. Basically
 	 * a bit map of the different OP values in the class SelectionKey.
 	 */
-	public synchronized int getReadyOpsFor(ReactorEventHandler handler) {
-		selector.wakeup();
-		SelectableChannel channel = handler.getHandle();
-		SelectionKey key = channel != null ? channel.keyFor(selector) : null;
-		if (key != null) {
-			if (key.isValid()) {
-				return key.readyOps();
+	public int getReadyOpsFor(ReactorEventHandler handler) {
+		if (queuedInterestOps) {
+			try {
+				SelectionKey key = keyFor(handler);
+				return key != null ? key.readyOps() : 0;
+			} catch (CancelledKeyException e) {
+				return 0;
 			}
 		}
-		return 0;
+
+		synchronized (this) {
+			selector.wakeup();
+			SelectionKey key = keyFor(handler);
+			return key != null ? key.readyOps() : 0;
+		}
+	}
+
+	/**
+	 * Specifies how interest changes (register/deregister/remove) are applied.
+	 * In queued mode, callers post their changes to a lock-free queue and the
+	 * reactor thread applies them in one batch before each select, with at most
+	 * one selector wakeup per batch. Otherwise each change is applied
+	 * immediately by the calling thread, which must first wake the reactor up
+	 * and then contend with it for this reactor's monitor. May be changed at any
+	 * time.
+	 *
+	 * @param value True for queued mode, false for immediate mode.
+	 */
+	void setQueuedInterestOps(boolean value) {
+		queuedInterestOps = value;
+		if (value) {
+			// Make sure the reactor picks up the new mode promptly
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Determines whether interest changes are queued to the reactor thread.
+	 *
+	 * @return True if in queued mode, false otherwise.
+	 */
+	boolean isQueuedInterestOps() {
+		return queuedInterestOps;
+	}
+
+	/**
+	 * Retrieves the current load of this reactor, used for balancing
+	 * connections across the reactors of a domain.
+	 *
+	 * @return The number of channels currently registered with this reactor.
+	 * This is a snapshot, and may be slightly out of date.
+	 */
+	int getLoad() {
+		try {
+			return selector.keys().size();
+		} catch (ClosedSelectorException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Schedules a timeout of a connection served by this reactor. The timeout
+	 * expires on the reactor thread, unless cancelled or rescheduled before.
+	 *
+	 * @param timeout The timeout to schedule, rescheduled if already scheduled.
+	 * @param delayMs The delay until expiry, in milliseconds, rounded up to
+	 * the timer resolution of TIMER_TICK_MS.
+	 */
+	void scheduleTimeout(AfxTimeout timeout, long delayMs) {
+		if (timingWheel.schedule(timeout, delayMs, currentTimeMs()) && (Thread.currentThread() != reactorThread)) {
+			// The reactor may be selecting without a time limit
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Hands a completion event to this reactor, to be executed inline once
+	 * the handler that detected it returns, i.e. no longer holds the lock on
+	 * the connection. Only accepted from this reactor thread.
+	 *
+	 * @param event The completion event, targeting a connection served by
+	 * this reactor.
+	 * @return True if the event will be executed by this reactor, false if not
+	 * invoked by this reactor thread.
+	 */
+	boolean deferCompletion(AfxFsmEvent event) {
+		if (Thread.currentThread() != reactorThread) {
+			return false;
+		}
+		deferredCompletions.addLast(event);
+		return true;
+	}
+
+	/**
+	 * Executes the completion events handed over by the handlers since the
+	 * last call, in order. Invoked by this reactor thread only.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	@SuppressWarnings("NestedAssignment")
+	private void executeCompletions() throws InterruptedException {
+		AfxFsmEvent event;
+		while (null != (event = deferredCompletions.pollFirst())) {
+			((AfxConnection) event.getContext()).domain.executeCompletion(event);
+		}
+	}
+
+	/**
+	 * Cancels a timeout. Does nothing if not scheduled.
+	 *
+	 * @param timeout The timeout to cancel.
+	 */
+	void cancelTimeout(AfxTimeout timeout) {
+		timingWheel.cancel(timeout);
+	}
+
+	/**
+	 * Claims the expiry of a timeout, see AfxTimingWheel.claim().
+	 *
+	 * @param timeout The expired timeout.
+	 * @return True if the expiry is still valid, false if the timeout was
+	 * rescheduled or cancelled since.
+	 */
+	boolean claimTimeout(AfxTimeout timeout) {
+		return timingWheel.claim(timeout);
+	}
+
+	/**
+	 * Retrieves the current time, as used by the timing wheel.
+	 *
+	 * @return The current time in milliseconds, from an arbitrary origin.
+	 */
+	static long currentTimeMs() {
+		return System.nanoTime() / 1000000L;
 	}
 
 	/**
@@ -88,13 +225,38 @@ class AfxReactor implements Runnable {
 	 * @param events The set of interested events (bit-masked of SelectionKey OP
 	 * flags).
 	 */
-	public synchronized void registerHandler(ReactorEventHandler handler, int events) {
-		try {
-			// Because Selector.select() actually synchronizes on the key set, we
-			// must break it out so that the logic below won't block
-			selector.wakeup();
+	public void registerHandler(ReactorEventHandler handler, int events) {
+		if (queuedInterestOps) {
+			postChange(new InterestChange(InterestChange.REGISTER, handler, handler.getHandle(), events));
+		} else {
+			synchronized (this) {
+				// Because Selector.select() actually synchronizes on the key set, we
+				// must break it out so that the logic below won't block
+				selector.wakeup();
+				applyRegister(handler, handler.getHandle(), events, false);
+			}
+		}
+	}
 
-			SelectionKey key = handler.getHandle().keyFor(selector);
+	/**
+	 * Applies a registration against the selector.
+	 *
+	 * @param handler The event handler to be registered
+	 * @param channel The handler's channel
+	 * @param events The set of interested events
+	 * @param reactorThread Whether invoked by the reactor thread itself, in
+	 * which case there is no need to wake the selector up again.
+	 * @return True if the selector had to be flushed (via selectNow) to clear a
+	 * cancelled key, false otherwise.
+	 */
+	private boolean applyRegister(ReactorEventHandler handler, SelectableChannel channel, int events, boolean reactorThread) {
+		boolean flushed = false;
+		if (null == channel) {
+			DjvSystem.logError(Category.DESIGN, "Null handle");
+			return flushed;
+		}
+		try {
+			SelectionKey key = channel.keyFor(selector);
 			if ((null == key) || (!key.isValid())) {
 				if (0 != events) {
 					if (null != key) {
@@ -102,13 +264,16 @@ class AfxReactor implements Runnable {
 						// otherwise the regiter method will throw cancelled key exception
 						try {
 							selector.selectNow();
+							flushed = true;
 						} catch (IOException e) {
 						}
 
-						// selectNow clears the effect of any previous wakeup
-						selector.wakeup();
+						if (!reactorThread) {
+							// selectNow clears the effect of any previous wakeup
+							selector.wakeup();
+						}
 					}
-					key = handler.getHandle().register(selector, events);
+					key = channel.register(selector, events);
 					if (null != key) {
 						key.attach(handler);
 					} else {
@@ -133,11 +298,12 @@ class AfxReactor implements Runnable {
 			}
 		} catch (java.nio.channels.ClosedChannelException e) {
 			DjvSystem.logError(Category.DESIGN,
-				"Channel " + handler.getHandle() + " closed");
+				"Channel " + channel + " closed");
 		} catch (CancelledKeyException e) {
 			DjvSystem.logError(Category.DESIGN,
-				"Channel " + handler.getHandle() + " encountered cancelled key @ " + DjvExceptionUtil.simpleTrace(e));
+				"Channel " + channel + " encountered cancelled key @ " + DjvExceptionUtil.simpleTrace(e));
 		}
+		return flushed;
 	}
 
 	/**
@@ -148,12 +314,27 @@ class AfxReactor implements Runnable {
 	 * @param handler The event handler to deregister.
 	 * @param events The set of events to remove
 	 */
-	public synchronized void deregisterHandler(ReactorEventHandler handler, int events) {
-		if (null != handler.getHandle()) {
-			// Cancelled keys and changed interest set are not reflected until select() is invoked again
-			selector.wakeup();
+	public void deregisterHandler(ReactorEventHandler handler, int events) {
+		if (queuedInterestOps) {
+			postChange(new InterestChange(InterestChange.DEREGISTER, handler, handler.getHandle(), events));
+		} else {
+			synchronized (this) {
+				// Cancelled keys and changed interest set are not reflected until select() is invoked again
+				selector.wakeup();
+				applyDeregister(handler.getHandle(), events);
+			}
+		}
+	}
 
-			SelectionKey key = handler.getHandle().keyFor(selector);
+	/**
+	 * Removes a set of events from the interest set of a handler.
+	 *
+	 * @param channel The channel of the event handler to deregister.
+	 * @param events The set of events to remove
+	 */
+	private void applyDeregister(SelectableChannel channel, int events) {
+		if (null != channel) {
+			SelectionKey key = channel.keyFor(selector);
 			if ((null != key) && (key.isValid())) {
 				// Remove the unwanted bits from the existing interest OPs
 				int interestOps = key.interestOps() & (~events);
@@ -164,7 +345,7 @@ class AfxReactor implements Runnable {
 				{
 					key.interestOps(interestOps);
 				}
-			} else {
+			} else if (channel.isOpen()) {
 				DjvSystem.logError(Category.DESIGN, "Invalid key");
 			}
 		} else {
@@ -179,14 +360,90 @@ class AfxReactor implements Runnable {
 	 *
 	 * @param handler The event handler to remove.
 	 */
-	public synchronized void removeHandler(ReactorEventHandler handler) {
-		if (null != handler.getHandle()) {
+	public void removeHandler(ReactorEventHandler handler) {
+		if (queuedInterestOps) {
+			postChange(new InterestChange(InterestChange.REMOVE, handler, handler.getHandle(), 0));
+		} else {
+			synchronized (this) {
+				SelectableChannel channel = handler.getHandle();
+				if (null != channel) {
+					selector.wakeup();
+				}
+				applyRemove(channel);
+			}
+		}
+	}
+
+	/**
+	 * Cancels the selection key of a handler.
+	 *
+	 * @param channel The channel of the event handler to remove.
+	 */
+	private void applyRemove(SelectableChannel channel) {
+		SelectionKey key = channel != null ? channel.keyFor(selector) : null;
+		if ((key != null) && key.isValid()) {
+			key.cancel();
+		}
+	}
+
+	/**
+	 * Locates the valid selection key of a handler.
+	 *
+	 * @param handler The target handler
+	 * @return The handler's key with this reactor's selector, null if none or
+	 * if the key is no longer valid.
+	 */
+	private SelectionKey keyFor(ReactorEventHandler handler) {
+		SelectableChannel channel = handler.getHandle();
+		SelectionKey key = channel != null ? channel.keyFor(selector) : null;
+		return ((key != null) && key.isValid()) ? key : null;
+	}
+
+	/**
+	 * Posts an interest change to be applied by the reactor thread. Wakes the
+	 * selector up only for the first change of a batch, and never when posted
+	 * by the reactor thread itself (it applies the batch before selecting
+	 * again anyway).
+	 *
+	 * @param change The change to be posted.
+	 */
+	private void postChange(InterestChange change) {
+		pendingChanges.offer(change);
+		if ((Thread.currentThread() != reactorThread) && wakeupPending.compareAndSet(false, true)) {
 			selector.wakeup();
-			SelectionKey key = handler.getHandle().keyFor(selector);
-			if ((null != key) && (key.isValid())) {
-				key.cancel();
+		}
+	}
+
+	/**
+	 * Applies, in order, all interest changes posted so far. Invoked only by
+	 * the reactor thread, prior to selecting.
+	 *
+	 * @return True if the selector had to be flushed (via selectNow) while
+	 * applying the changes, meaning some keys may already be selected.
+	 */
+	private boolean applyPendingChanges() {
+		// Re-arm the wakeup first, any change posted from here on triggers a new one
+		wakeupPending.set(false);
+
+		boolean flushed = false;
+		InterestChange change;
+		while (null != (change = pendingChanges.poll())) {
+			try {
+				switch (change.type) {
+					case InterestChange.REGISTER:
+						flushed |= applyRegister(change.handler, change.channel, change.events, true);
+						break;
+					case InterestChange.DEREGISTER:
+						applyDeregister(change.channel, change.events);
+						break;
+					default:
+						applyRemove(change.channel);
+				}
+			} catch (CancelledKeyException e) {
+				DjvSystem.logWarning(Category.DESIGN, "Channel " + change.channel + " encountered cancelled key");
 			}
 		}
+		return flushed;
 	}
 
 	@Override
@@ -197,69 +454,104 @@ class AfxReactor implements Runnable {
 		ReactorEventHandler[] handlerArray = new ReactorEventHandler[maxChannels];
 		SelectableChannel[] channelArray = new SelectableChannel[maxChannels];
 
+		reactorThread = Thread.currentThread();
+		AfxBufferPool.enableThreadCache();
 		try {
 			while (running) {
-				// Allows this thread to be blocked (by deregister/registerHandler)
-				// prior to re-entering into select()
-				synchronized (this) {
+				boolean queued = queuedInterestOps;
+				boolean selected;
+				long selectStart;
+				if (queued) {
+					// Apply all interest changes posted since the last round in
+					// one batch, no lock needed as only this thread touches the keys
+					boolean flushed = applyPendingChanges();
+					selectStart = System.nanoTime();
+					if (flushed) {
+						// Some keys may have been selected while flushing cancelled keys
+						selected = (selector.selectNow() > 0) || !selector.selectedKeys().isEmpty();
+					} else {
+						selected = selector.select(timingWheel.getSelectTimeout(currentTimeMs())) > 0;
+					}
+				} else {
+					// Allows this thread to be blocked (by deregister/registerHandler)
+					// prior to re-entering into select(). Also picks up any change
+					// left over from a previous queued mode.
+					synchronized (this) {
+						applyPendingChanges();
+					}
+					selectStart = System.nanoTime();
+					selected = selector.select(timingWheel.getSelectTimeout(currentTimeMs())) > 0;
 				}
+				long handlerStart = System.nanoTime();
+				long selectWait = handlerStart - selectStart;
 
-				if (selector.select() > 0) {
-					int keyCount = 0;
+				if (selected) {
+					int keyCount;
 
-					// Extract all key info inside this synchronized block to prevent deadlock
-					synchronized (this) {
-						Set<SelectionKey> selectedKeys = selector.selectedKeys();
-						for (SelectionKey key : selectedKeys) {
-							if (key.isValid()) {
-								if (keyCount < maxChannels) {
-									channelArray[keyCount] = key.channel();
-									interestArray[keyCount] = key.readyOps();
-									handlerArray[keyCount++] = (ReactorEventHandler) key.attachment();
-								} else {
-									DjvSystem.logError(Category.DESIGN,
-											name + ": number of channels, " + selectedKeys.size() + " exceeded maximum of " + maxChannels);
-								}
-							}
+					// Extract all key info inside a synchronized block to prevent deadlock,
+					// unless interest changes are queued to this thread
+					if (queued) {
+						keyCount = extractSelectedKeys(interestArray, handlerArray, channelArray);
+					} else {
+						synchronized (this) {
+							keyCount = extractSelectedKeys(interestArray, handlerArray, channelArray);
 						}
-						selectedKeys.clear();
 					}
 
 					for (int i = 0; i < keyCount; ++i) {
 						int interest = interestArray[i];
 						ReactorEventHandler handler = handlerArray[i];
 						if (null != handler) {
+							if (handler instanceof AfxConnection) {
+								// Readiness counts as activity, for the idle timeout
+								((AfxConnection) handler).recordActivity(handlerStart / 1000000L);
+							}
 							if (!channelArray[i].isOpen()) {
 								handler.onDisconnect();
+								handlerStart = recordElapsed(monitor.disconnectTime, handlerStart);
 							} else {
 								if (0 != (interest & SelectionKey.OP_CONNECT)) {
 									handler.onConnect();
+									handlerStart = recordElapsed(monitor.connectTime, handlerStart);
 								}
 
 								if (0 != (interest & SelectionKey.OP_READ)) {
 									handler.onRead();
+									handlerStart = recordElapsed(monitor.readTime, handlerStart);
 								}
 
 								if (0 != (interest & SelectionKey.OP_WRITE)) {
 									handler.onWrite();
+									handlerStart = recordElapsed(monitor.writeTime, handlerStart);
 								}
 
 								if (0 != (interest & SelectionKey.OP_ACCEPT)) {
 									handler.onAccept();
+									handlerStart = recordElapsed(monitor.acceptTime, handlerStart);
 								}
 							}
+
+							// The handler detected these completions while holding
+							// the lock on the connection, execute them now
+							executeCompletions();
 						}
 
 						handlerArray[i] = null;
 						channelArray[i] = null;
 					}
+					monitor.iterationDone(selectWait, keyCount);
 				} else {
+					monitor.iterationDone(selectWait, 0);
 					synchronized (this) {
 						if (!selector.isOpen()) {
 							break;
 						}
 					}
 				}
+
+				// Fire the connection timeouts that came due
+				timingWheel.expire(currentTimeMs());
+				executeCompletions();
 			}
 		} catch (IOException | RuntimeException e) {
 			DjvSystem.logWarning(Category.DESIGN, this + " terminated due to "
@@ -273,6 +565,57 @@ class AfxReactor implements Runnable {
 		}
 	}
 
+	/**
+	 * Records the time elapsed since some start time into a histogram.
+	 *
+	 * @param histogram The histogram to record into.
+	 * @param start The start time, from System.nanoTime().
+	 * @return The current time, i.e. the start time of whatever comes next.
+	 */
+	private static long recordElapsed(AfxHistogram histogram, long start) {
+		long now = System.nanoTime();
+		histogram.record(now - start);
+		return now;
+	}
+
+	/**
+	 * Retrieves a snapshot of the statistics of this reactor.
+	 *
+	 * @return The statistics snapshot, never null.
+	 */
+	AfxReactorStatistics getStatistics() {
+		return monitor.snapshot();
+	}
+
+	/**
+	 * Copies the information of the currently selected keys out into the given
+	 * arrays, then clears the selected key set.
+	 *
+	 * @param interestArray Receives the ready operations of each key.
+	 * @param handlerArray Receives the handler attached to each key.
+	 * @param channelArray Receives the channel of each key.
+	 * @return The number of keys extracted.
+	 */
+	private int extractSelectedKeys(int[] interestArray, ReactorEventHandler[] handlerArray, SelectableChannel[] channelArray) {
+		int keyCount = 0;
+		Set<SelectionKey> selectedKeys = selector.selectedKeys();
+		for (SelectionKey key : selectedKeys) {
+			if (key.isValid()) {
+				if (keyCount < maxChannels) {
+					channelArray[keyCount] = key.channel();
+					interestArray[keyCount] = key.readyOps();
+					handlerArray[keyCount++] = (ReactorEventHandler) key.attachment();
+				} else {
+					monitor.overflow(1);
+					DjvSystem.logError(Category.DESIGN,
+							name + ": number of channels, " + selectedKeys.size() + " exceeded maximum of " + maxChannels);
+				}
+			}
+		}
+		selectedKeys.clear();
+		return keyCount;
+	}
+
 	/**
 	 * Starts the reactor, spawning its active thread.
 	 *
@@ -288,6 +631,7 @@ class AfxReactor implements Runnable {
 			if ((threadPriority >= Thread.MIN_PRIORITY) && (threadPriority <= Thread.MAX_PRIORITY)) {
 				myThread.setPriority(threadPriority);
 			}
+			monitor.registerMBean();
 			myThread.start();
 		}
 	}
@@ -297,6 +641,7 @@ class AfxReactor implements Runnable {
 	 * should be discarded and not be reused.
 	 */
 	public void stop() {
+		monitor.unregisterMBean();
 		try {
 			running = false;
 			selector.close();
@@ -315,6 +660,38 @@ class AfxReactor implements Runnable {
 	private final Selector selector;
 	private boolean started = false;
 	private volatile boolean running = true;
+	private volatile boolean queuedInterestOps;
+	private final AfxReactorMonitor monitor;
+	private volatile Thread reactorThread;
+
+	/**
+	 * Resolution of the connection timeouts, and number of slots of the timing
+	 * wheel, i.e. one revolution covers a little under a minute
+	 */
+	static final long TIMER_TICK_MS = 100;
+	static final int TIMER_SLOTS = 512;
+
+	/**
+	 * Timeouts of the connections served by this reactor
+	 */
+	private final AfxTimingWheel timingWheel;
+
+	/**
+	 * Completion events to be executed inline, see deferCompletion(). Only
+	 * accessed by the reactor thread.
+	 */
+	private final ArrayDeque<AfxFsmEvent> deferredCompletions = new ArrayDeque<>();
+
+	/**
+	 * Interest changes posted by other threads, in queued mode.
+	 */
+	private final ConcurrentLinkedQueue<InterestChange> pendingChanges = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Whether the selector had already been woken up for the current batch of
+	 * interest changes.
+	 */
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
 
 	/** @link dependency */
 	/*# ReactorEventHandler lnkReactorEventHandler; */
@@ -323,4 +700,26 @@ class AfxReactor implements Runnable {
 	private final String name;
 
 	private final int maxChannels;
+
+	/**
+	 * An interest change posted to the reactor thread.
+	 */
+	private static final class InterestChange {
+
+		static final int REGISTER = 1;
+		static final int DEREGISTER = 2;
+		static final int REMOVE = 3;
+
+		InterestChange(int type, ReactorEventHandler handler, SelectableChannel channel, int events) {
+			this.type = type;
+			this.handler = handler;
+			this.channel = channel;
+			this.events = events;
+		}
+
+		final int type;
+		final ReactorEventHandler handler;
+		final SelectableChannel channel;
+		final int events;
+	}
 }
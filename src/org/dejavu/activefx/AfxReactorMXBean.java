@@ -0,0 +1,96 @@
+package org.dejavu.activefx;
+
+/**
+ * JMX management interface of an Active FX reactor. Registered under
+ * <code>org.dejavu.activefx:type=AfxReactor,name=&lt;reactor name&gt;</code>
+ * while the reactor is running. Timings are in nanoseconds, and cumulative
+ * since the reactor was created.
+ */
+public interface AfxReactorMXBean {
+
+	/**
+	 * @return The number of reactor loop iterations.
+	 */
+	long getIterations();
+
+	/**
+	 * @return The number of ready keys dropped due to exceeding the maximum
+	 * number of channels.
+	 */
+	long getOverflowCount();
+
+	/**
+	 * @return The number of channels currently registered.
+	 */
+	int getRegisteredChannels();
+
+	/**
+	 * @return Mean time blocked in select.
+	 */
+	double getSelectWaitMean();
+
+	/**
+	 * @return 99th percentile time blocked in select.
+	 */
+	long getSelectWait99thPercentile();
+
+	/**
+	 * @return Mean number of ready keys per iteration.
+	 */
+	double getKeysPerIterationMean();
+
+	/**
+	 * @return Largest number of ready keys in one iteration.
+	 */
+	long getKeysPerIterationMax();
+
+	/**
+	 * @return Number of onRead callbacks.
+	 */
+	long getReadCount();
+
+	/**
+	 * @return Mean time spent in onRead callbacks.
+	 */
+	double getReadTimeMean();
+
+	/**
+	 * @return 99th percentile time spent in onRead callbacks.
+	 */
+	long getReadTime99thPercentile();
+
+	/**
+	 * @return Number of onWrite callbacks.
+	 */
+	long getWriteCount();
+
+	/**
+	 * @return Mean time spent in onWrite callbacks.
+	 */
+	double getWriteTimeMean();
+
+	/**
+	 * @return 99th percentile time spent in onWrite callbacks.
+	 */
+	long getWriteTime99thPercentile();
+
+	/**
+	 * @return Number of onConnect callbacks.
+	 */
+	long getConnectCount();
+
+	/**
+	 * @return Mean time spent in onConnect callbacks.
+	 */
+	double getConnectTimeMean();
+
+	/**
+	 * @return Number of onAccept callbacks.
+	 */
+	long getAcceptCount();
+
+	/**
+	 * @return Mean time spent in onAccept callbacks.
+	 */
+	double getAcceptTimeMean();
+}
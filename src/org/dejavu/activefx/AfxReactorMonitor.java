@@ -0,0 +1,193 @@
+package org.dejavu.activefx;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.dejavu.util.DjvExceptionUtil;
+import org.dejavu.util.DjvLogMsg.Category;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * Always-on instrumentation of a single reactor. The recording side is only
+ * ever driven by the reactor thread; snapshots and JMX queries may come from
+ * any thread.
+ */
+final class AfxReactorMonitor implements AfxReactorMXBean {
+
+	/**
+	 * Creates a new monitor.
+	 *
+	 * @param reactor The reactor being monitored.
+	 * @param name The name of the reactor.
+	 */
+	AfxReactorMonitor(AfxReactor reactor, String name) {
+		this.reactor = reactor;
+		this.name = name;
+	}
+
+	/**
+	 * Takes a snapshot of all statistics.
+	 *
+	 * @return The snapshot, never null.
+	 */
+	AfxReactorStatistics snapshot() {
+		return new AfxReactorStatistics(name, System.currentTimeMillis(), iterations, overflowCount, reactor.getLoad(),
+			selectWait.snapshot(), keysPerIteration.snapshot(), connectTime.snapshot(), readTime.snapshot(),
+			writeTime.snapshot(), acceptTime.snapshot(), disconnectTime.snapshot());
+	}
+
+	/**
+	 * Records the completion of one reactor loop iteration. Reactor thread
+	 * only.
+	 *
+	 * @param selectWaitNs Time spent blocked in select.
+	 * @param numKeys Number of ready keys processed.
+	 */
+	void iterationDone(long selectWaitNs, int numKeys) {
+		selectWait.record(selectWaitNs);
+		keysPerIteration.record(numKeys);
+		iterations++;
+	}
+
+	/**
+	 * Records ready keys dropped due to overflowing the maximum number of
+	 * channels. Reactor thread only.
+	 *
+	 * @param numKeys The number of keys dropped.
+	 */
+	void overflow(int numKeys) {
+		overflowCount += numKeys;
+	}
+
+	/**
+	 * Registers this monitor with the platform MBean server. Failures are
+	 * logged and otherwise ignored.
+	 */
+	synchronized void registerMBean() {
+		if (null == objectName) {
+			try {
+				ObjectName newName = new ObjectName("org.dejavu.activefx:type=AfxReactor,name=" + ObjectName.quote(name));
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(new StandardMBean(this, AfxReactorMXBean.class, true), newName);
+				objectName = newName;
+			} catch (JMException | RuntimeException e) {
+				DjvSystem.logWarning(Category.DESIGN, "Failed to register " + name + " with JMX due to " + DjvExceptionUtil.simpleTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Removes this monitor from the platform MBean server, if registered.
+	 */
+	synchronized void unregisterMBean() {
+		if (null != objectName) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException | RuntimeException e) {
+				DjvSystem.logWarning(Category.DESIGN, DjvExceptionUtil.simpleTrace(e));
+			}
+			objectName = null;
+		}
+	}
+
+	@Override
+	public long getIterations() {
+		return iterations;
+	}
+
+	@Override
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	@Override
+	public int getRegisteredChannels() {
+		return reactor.getLoad();
+	}
+
+	@Override
+	public double getSelectWaitMean() {
+		return selectWait.snapshot().getMean();
+	}
+
+	@Override
+	public long getSelectWait99thPercentile() {
+		return selectWait.snapshot().getPercentile(99.0);
+	}
+
+	@Override
+	public double getKeysPerIterationMean() {
+		return keysPerIteration.snapshot().getMean();
+	}
+
+	@Override
+	public long getKeysPerIterationMax() {
+		return keysPerIteration.snapshot().getMax();
+	}
+
+	@Override
+	public long getReadCount() {
+		return readTime.snapshot().getCount();
+	}
+
+	@Override
+	public double getReadTimeMean() {
+		return readTime.snapshot().getMean();
+	}
+
+	@Override
+	public long getReadTime99thPercentile() {
+		return readTime.snapshot().getPercentile(99.0);
+	}
+
+	@Override
+	public long getWriteCount() {
+		return writeTime.snapshot().getCount();
+	}
+
+	@Override
+	public double getWriteTimeMean() {
+		return writeTime.snapshot().getMean();
+	}
+
+	@Override
+	public long getWriteTime99thPercentile() {
+		return writeTime.snapshot().getPercentile(99.0);
+	}
+
+	@Override
+	public long getConnectCount() {
+		return connectTime.snapshot().getCount();
+	}
+
+	@Override
+	public double getConnectTimeMean() {
+		return connectTime.snapshot().getMean();
+	}
+
+	@Override
+	public long getAcceptCount() {
+		return acceptTime.snapshot().getCount();
+	}
+
+	@Override
+	public double getAcceptTimeMean() {
+		return acceptTime.snapshot().getMean();
+	}
+
+	final AfxHistogram selectWait = new AfxHistogram();
+	final AfxHistogram keysPerIteration = new AfxHistogram();
+	final AfxHistogram connectTime = new AfxHistogram();
+	final AfxHistogram readTime = new AfxHistogram();
+	final AfxHistogram writeTime = new AfxHistogram();
+	final AfxHistogram acceptTime = new AfxHistogram();
+	final AfxHistogram disconnectTime = new AfxHistogram();
+
+	private final AfxReactor reactor;
+	private final String name;
+	private volatile long iterations;
+	private volatile long overflowCount;
+	private ObjectName objectName;
+}
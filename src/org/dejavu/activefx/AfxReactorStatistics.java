@@ -0,0 +1,159 @@
+package org.dejavu.activefx;
+
+/**
+ * Immutable snapshot of the statistics of a single Active FX reactor. All
+ * counters and histograms are cumulative since the reactor was created; take
+ * two snapshots and compare them to observe a particular interval. Timings
+ * are in nanoseconds.
+ */
+public final class AfxReactorStatistics {
+
+	AfxReactorStatistics(String reactorName, long timestamp, long iterations, long overflowCount, int registeredChannels,
+		AfxHistogramSnapshot selectWait, AfxHistogramSnapshot keysPerIteration, AfxHistogramSnapshot connectTime,
+		AfxHistogramSnapshot readTime, AfxHistogramSnapshot writeTime, AfxHistogramSnapshot acceptTime,
+		AfxHistogramSnapshot disconnectTime) {
+		this.reactorName = reactorName;
+		this.timestamp = timestamp;
+		this.iterations = iterations;
+		this.overflowCount = overflowCount;
+		this.registeredChannels = registeredChannels;
+		this.selectWait = selectWait;
+		this.keysPerIteration = keysPerIteration;
+		this.connectTime = connectTime;
+		this.readTime = readTime;
+		this.writeTime = writeTime;
+		this.acceptTime = acceptTime;
+		this.disconnectTime = disconnectTime;
+	}
+
+	/**
+	 * Retrieves the name of the reactor.
+	 *
+	 * @return The reactor name.
+	 */
+	public String getReactorName() {
+		return reactorName;
+	}
+
+	/**
+	 * Retrieves the time at which this snapshot was taken.
+	 *
+	 * @return Time stamp, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Retrieves the number of reactor loop iterations, i.e. selects.
+	 *
+	 * @return The number of iterations.
+	 */
+	public long getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Retrieves the number of ready keys dropped because more keys were
+	 * selected in one iteration than the maximum number of channels the
+	 * reactor was configured for.
+	 *
+	 * @return The number of dropped keys.
+	 */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * Retrieves the number of channels registered with the reactor at the
+	 * time of the snapshot.
+	 *
+	 * @return The number of registered channels.
+	 */
+	public int getRegisteredChannels() {
+		return registeredChannels;
+	}
+
+	/**
+	 * Retrieves the time spent blocked in select, per iteration.
+	 *
+	 * @return The select wait histogram, in nanoseconds.
+	 */
+	public AfxHistogramSnapshot getSelectWait() {
+		return selectWait;
+	}
+
+	/**
+	 * Retrieves the number of ready keys processed per iteration.
+	 *
+	 * @return The keys per iteration histogram.
+	 */
+	public AfxHistogramSnapshot getKeysPerIteration() {
+		return keysPerIteration;
+	}
+
+	/**
+	 * Retrieves the time spent in onConnect handler callbacks.
+	 *
+	 * @return The handler time histogram, in nanoseconds.
+	 */
+	public AfxHistogramSnapshot getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * Retrieves the time spent in onRead handler callbacks.
+	 *
+	 * @return The handler time histogram, in nanoseconds.
+	 */
+	public AfxHistogramSnapshot getReadTime() {
+		return readTime;
+	}
+
+	/**
+	 * Retrieves the time spent in onWrite handler callbacks.
+	 *
+	 * @return The handler time histogram, in nanoseconds.
+	 */
+	public AfxHistogramSnapshot getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Retrieves the time spent in onAccept handler callbacks.
+	 *
+	 * @return The handler time histogram, in nanoseconds.
+	 */
+	public AfxHistogramSnapshot getAcceptTime() {
+		return acceptTime;
+	}
+
+	/**
+	 * Retrieves the time spent in onDisconnect handler callbacks.
+	 *
+	 * @return The handler time histogram, in nanoseconds.
+	 */
+	public AfxHistogramSnapshot getDisconnectTime() {
+		return disconnectTime;
+	}
+
+	@Override
+	public String toString() {
+		return "AfxReactorStatistics:{reactor:" + reactorName + ", iterations:" + iterations + ", overflow:" + overflowCount
+			+ ", channels:" + registeredChannels + ", selectWait:" + selectWait + ", keysPerIteration:" + keysPerIteration
+			+ ", read:" + readTime + ", write:" + writeTime + ", connect:" + connectTime + ", accept:" + acceptTime + '}';
+	}
+
+	private final String reactorName;
+	private final long timestamp;
+	private final long iterations;
+	private final long overflowCount;
+	private final int registeredChannels;
+	private final AfxHistogramSnapshot selectWait;
+	private final AfxHistogramSnapshot keysPerIteration;
+	private final AfxHistogramSnapshot connectTime;
+	private final AfxHistogramSnapshot readTime;
+	private final AfxHistogramSnapshot writeTime;
+	private final AfxHistogramSnapshot acceptTime;
+	private final AfxHistogramSnapshot disconnectTime;
+}
@@ -0,0 +1,251 @@
+package org.dejavu.activefx;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import org.dejavu.util.DjvLogMsg.Category;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * A batch of datagrams to send with AfxConnectionUdp.sendBatch(), each to its
+ * own destination. The same buffer may be sent to many destinations, e.g. to
+ * fan an update out to subscribers, its content is sent from its position as
+ * of when it was added. The batch is flushed by the reactor thread in a tight
+ * loop, and completes once with AfxEventHandler.batchSent(), the failure of
+ * each destination being recorded rather than ending the batch.
+ * <p>
+ * A batch must not be modified while being sent, and may be reused after its
+ * completion with clear().
+ */
+public class AfxSendBatch {
+
+	/**
+	 * Creates an empty batch.
+	 */
+	public AfxSendBatch() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty batch.
+	 *
+	 * @param initialCapacity The number of datagrams to make room for, the
+	 * batch grows as needed.
+	 */
+	public AfxSendBatch(int initialCapacity) {
+		int capacity = Math.max(1, initialCapacity);
+		buffers = new ByteBuffer[capacity];
+		positions = new int[capacity];
+		limits = new int[capacity];
+		targets = new SocketAddress[capacity];
+		failures = new Exception[capacity];
+	}
+
+	/**
+	 * Adds a datagram to the batch.
+	 *
+	 * @param buffer The buffer containing the datagram, from its position to
+	 * its limit.
+	 * @param target The destination address.
+	 * @return This object.
+	 */
+	public AfxSendBatch add(ByteBuffer buffer, SocketAddress target) {
+		if (count == buffers.length) {
+			int capacity = count << 1;
+			buffers = Arrays.copyOf(buffers, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			limits = Arrays.copyOf(limits, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			failures = Arrays.copyOf(failures, capacity);
+		}
+		buffers[count] = buffer;
+		positions[count] = buffer.position();
+		limits[count] = buffer.limit();
+		targets[count] = target;
+		failures[count] = null;
+		++count;
+		return this;
+	}
+
+	/**
+	 * Adds the same datagram to the batch, once per destination.
+	 *
+	 * @param buffer The buffer containing the datagram, from its position to
+	 * its limit.
+	 * @param targets The destination addresses.
+	 * @return This object.
+	 */
+	public AfxSendBatch add(ByteBuffer buffer, Iterable<? extends SocketAddress> targets) {
+		for (SocketAddress target : targets) {
+			add(buffer, target);
+		}
+		return this;
+	}
+
+	/**
+	 * Empties the batch, for reuse once completed.
+	 *
+	 * @return This object.
+	 */
+	public AfxSendBatch clear() {
+		Arrays.fill(buffers, 0, count, null);
+		Arrays.fill(targets, 0, count, null);
+		Arrays.fill(failures, 0, count, null);
+		count = 0;
+		sent = 0;
+		numFailed = 0;
+		bytesSent = 0;
+		return this;
+	}
+
+	/**
+	 * Retrieves the number of datagrams in this batch.
+	 *
+	 * @return The number of datagrams.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Retrieves the destination of a datagram.
+	 *
+	 * @param index The index of the datagram, in the order added.
+	 * @return The destination address.
+	 */
+	public SocketAddress getTarget(int index) {
+		checkIndex(index);
+		return targets[index];
+	}
+
+	/**
+	 * Determines whether a datagram failed to be sent. Only meaningful once
+	 * the batch completed.
+	 *
+	 * @param index The index of the datagram, in the order added.
+	 * @return True if failed, false if sent.
+	 */
+	public boolean isFailed(int index) {
+		checkIndex(index);
+		return null != failures[index];
+	}
+
+	/**
+	 * Retrieves the reason a datagram failed to be sent.
+	 *
+	 * @param index The index of the datagram, in the order added.
+	 * @return The failure, null if sent.
+	 */
+	public Exception getFailure(int index) {
+		checkIndex(index);
+		return failures[index];
+	}
+
+	/**
+	 * Retrieves the number of datagrams that failed to be sent.
+	 *
+	 * @return The number of failures.
+	 */
+	public int getFailureCount() {
+		return numFailed;
+	}
+
+	/**
+	 * Prepares the batch for sending, forgetting the outcome of any previous
+	 * send.
+	 */
+	void start() {
+		Arrays.fill(failures, 0, count, null);
+		sent = 0;
+		numFailed = 0;
+		bytesSent = 0;
+	}
+
+	/**
+	 * Sends the datagrams not yet sent, until done or the channel has no room
+	 * left in its send buffer. Invoked by the reactor thread.
+	 *
+	 * @param channel The channel to send with.
+	 * @return True if every datagram was either sent or failed, false if
+	 * waiting for room in the send buffer.
+	 */
+	boolean flush(DatagramChannel channel) {
+		while (sent < count) {
+			ByteBuffer buffer = buffers[sent];
+			buffer.limit(limits[sent]).position(positions[sent]);
+			try {
+				int bytes = channel.send(buffer, targets[sent]);
+				if ((0 == bytes) && (positions[sent] < limits[sent])) {
+					// No room in the send buffer, wait for the next OP_WRITE.
+					// An empty datagram sends 0 bytes either way, taken as sent
+					buffer.position(positions[sent]);
+					return false;
+				}
+				bytesSent += bytes;
+			} catch (IOException | IllegalArgumentException | IllegalStateException e) {
+				if (DjvSystem.diagnosticEnabled()) {
+					DjvSystem.logInfo(Category.DESIGN, "Failed to send to " + targets[sent] + ": " + e);
+				}
+				failures[sent] = e;
+				++numFailed;
+				if (!channel.isOpen()) {
+					buffer.position(positions[sent++]);
+					fail("Channel closed");
+					return true;
+				}
+			}
+			buffer.position(positions[sent]);
+			++sent;
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves the number of bytes sent so far.
+	 *
+	 * @return The number of bytes sent.
+	 */
+	long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Fails the datagrams not yet sent, as the batch is aborted.
+	 *
+	 * @param cause The reason for aborting.
+	 */
+	void fail(String cause) {
+		while (sent < count) {
+			failures[sent++] = new AfxException(cause);
+			++numFailed;
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException("Datagram " + index + " of " + count);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "AfxSendBatch:{size:" + count + ", sent:" + sent + ", failed:" + numFailed + "}";
+	}
+
+	private ByteBuffer[] buffers;
+	private int[] positions;
+	private int[] limits;
+	private SocketAddress[] targets;
+	private Exception[] failures;
+	private int count;
+
+	/**
+	 * Progress of the send, only touched while holding the lock on the
+	 * connection sending the batch
+	 */
+	private int sent;
+	private int numFailed;
+	private long bytesSent;
+}
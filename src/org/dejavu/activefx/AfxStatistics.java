@@ -0,0 +1,202 @@
+package org.dejavu.activefx;
+
+/**
+ * Immutable snapshot of the traffic statistics of a connection, or of all the
+ * connections of a domain. All counters are cumulative since the connection
+ * or domain was created; take two snapshots and compare them, e.g. with the
+ * rate getters, to observe a particular interval.
+ * <p>
+ * Bytes are counted as carried by the channel, i.e. encrypted for TLS
+ * connections. Messages are the reads and writes completed, the queued
+ * writes, the frames of a codec pipeline and the datagrams of batches.
+ */
+public final class AfxStatistics {
+
+	AfxStatistics(long startTimestamp, long timestamp, long bytesIn, long bytesOut, long messagesIn, long messagesOut,
+		long partialWrites, long readFailures, long writeFailures, long openConnections, int pendingEvents) {
+		this.startTimestamp = startTimestamp;
+		this.timestamp = timestamp;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.messagesIn = messagesIn;
+		this.messagesOut = messagesOut;
+		this.partialWrites = partialWrites;
+		this.readFailures = readFailures;
+		this.writeFailures = writeFailures;
+		this.openConnections = openConnections;
+		this.pendingEvents = pendingEvents;
+	}
+
+	/**
+	 * Retrieves the time at which counting started, i.e. when the connection
+	 * or domain was created.
+	 *
+	 * @return Time stamp, in milliseconds since the epoch.
+	 */
+	public long getStartTimestamp() {
+		return startTimestamp;
+	}
+
+	/**
+	 * Retrieves the time at which this snapshot was taken.
+	 *
+	 * @return Time stamp, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Retrieves the number of bytes read from the channels.
+	 *
+	 * @return The number of bytes in.
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * Retrieves the number of bytes written to the channels.
+	 *
+	 * @return The number of bytes out.
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * Retrieves the number of messages received.
+	 *
+	 * @return The number of messages in.
+	 */
+	public long getMessagesIn() {
+		return messagesIn;
+	}
+
+	/**
+	 * Retrieves the number of messages sent.
+	 *
+	 * @return The number of messages out.
+	 */
+	public long getMessagesOut() {
+		return messagesOut;
+	}
+
+	/**
+	 * Retrieves the number of writes the channel only partly took, i.e. after
+	 * which the rest had to wait for the channel to become writable again.
+	 *
+	 * @return The number of partial writes.
+	 */
+	public long getPartialWrites() {
+		return partialWrites;
+	}
+
+	/**
+	 * Retrieves the number of reads that failed, including those aborted by
+	 * the connection closing.
+	 *
+	 * @return The number of read failures.
+	 */
+	public long getReadFailures() {
+		return readFailures;
+	}
+
+	/**
+	 * Retrieves the number of writes that failed, including queued writes
+	 * dropped as the connection closed.
+	 *
+	 * @return The number of write failures.
+	 */
+	public long getWriteFailures() {
+		return writeFailures;
+	}
+
+	/**
+	 * Retrieves the number of connections open at the time of the snapshot.
+	 *
+	 * @return The number of open connections, one or zero for a connection.
+	 */
+	public long getOpenConnections() {
+		return openConnections;
+	}
+
+	/**
+	 * Retrieves the number of events queued to the FSM domain but not yet
+	 * processed, at the time of the snapshot.
+	 *
+	 * @return The event queue depth, of the domain or pending for the
+	 * connection.
+	 */
+	public int getPendingEvents() {
+		return pendingEvents;
+	}
+
+	/**
+	 * Retrieves the rate at which bytes were read.
+	 *
+	 * @param earlier An earlier snapshot of the same connection or domain,
+	 * null for the rate since counting started.
+	 * @return The number of bytes in per second.
+	 */
+	public double getBytesInRate(AfxStatistics earlier) {
+		return rate(bytesIn, (null == earlier) ? 0 : earlier.bytesIn, earlier);
+	}
+
+	/**
+	 * Retrieves the rate at which bytes were written.
+	 *
+	 * @param earlier An earlier snapshot of the same connection or domain,
+	 * null for the rate since counting started.
+	 * @return The number of bytes out per second.
+	 */
+	public double getBytesOutRate(AfxStatistics earlier) {
+		return rate(bytesOut, (null == earlier) ? 0 : earlier.bytesOut, earlier);
+	}
+
+	/**
+	 * Retrieves the rate at which messages were received.
+	 *
+	 * @param earlier An earlier snapshot of the same connection or domain,
+	 * null for the rate since counting started.
+	 * @return The number of messages in per second.
+	 */
+	public double getMessagesInRate(AfxStatistics earlier) {
+		return rate(messagesIn, (null == earlier) ? 0 : earlier.messagesIn, earlier);
+	}
+
+	/**
+	 * Retrieves the rate at which messages were sent.
+	 *
+	 * @param earlier An earlier snapshot of the same connection or domain,
+	 * null for the rate since counting started.
+	 * @return The number of messages out per second.
+	 */
+	public double getMessagesOutRate(AfxStatistics earlier) {
+		return rate(messagesOut, (null == earlier) ? 0 : earlier.messagesOut, earlier);
+	}
+
+	private double rate(long count, long earlierCount, AfxStatistics earlier) {
+		long elapsedMs = timestamp - ((null == earlier) ? startTimestamp : earlier.timestamp);
+		return (0 < elapsedMs) ? ((count - earlierCount) * 1000.0) / elapsedMs : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "AfxStatistics:{bytesIn:" + bytesIn + ", bytesOut:" + bytesOut + ", messagesIn:" + messagesIn
+			+ ", messagesOut:" + messagesOut + ", partialWrites:" + partialWrites + ", readFailures:" + readFailures
+			+ ", writeFailures:" + writeFailures + ", openConnections:" + openConnections + ", pendingEvents:" + pendingEvents + '}';
+	}
+
+	private final long startTimestamp;
+	private final long timestamp;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long messagesIn;
+	private final long messagesOut;
+	private final long partialWrites;
+	private final long readFailures;
+	private final long writeFailures;
+	private final long openConnections;
+	private final int pendingEvents;
+}
@@ -0,0 +1,60 @@
+package org.dejavu.activefx;
+
+/**
+ * A deadline of a connection, scheduled in the timing wheel of the connection's
+ * reactor. Reused every time the same kind of deadline is armed again, so
+ * arming a timeout does not allocate.
+ */
+final class AfxTimeout {
+
+	/**
+	 * Creates a timeout.
+	 *
+	 * @param connection The connection to notify upon expiry.
+	 * @param kind The kind of timeout, one of the AfxConnection TIMEOUT_*
+	 * values.
+	 */
+	AfxTimeout(AfxConnection connection, int kind) {
+		this.connection = connection;
+		this.kind = kind;
+	}
+
+	/**
+	 * Notifies the connection of the expiry. Invoked by the reactor thread,
+	 * without holding any lock.
+	 *
+	 * @throws InterruptedException User interruption
+	 */
+	void expired() throws InterruptedException {
+		connection.timedOut(this);
+	}
+
+	@Override
+	public String toString() {
+		return "AfxTimeout:{kind:" + kind + ", connection:" + connection + "}";
+	}
+
+	final AfxConnection connection;
+	final int kind;
+
+	/**
+	 * Position in the wheel, guarded by the lock on the wheel. The slot is -1
+	 * when not scheduled.
+	 */
+	long deadlineTick;
+	int slot = -1;
+	AfxTimeout prev;
+	AfxTimeout next;
+
+	/**
+	 * Whether the timeout had expired and was not claimed, re-armed or
+	 * cancelled since, guarded by the lock on the wheel
+	 */
+	boolean expired;
+
+	/**
+	 * Next in the chain of timeouts expired but not yet notified, only used by
+	 * the reactor thread
+	 */
+	AfxTimeout nextDue;
+}
@@ -0,0 +1,211 @@
+package org.dejavu.activefx;
+
+import org.dejavu.util.DjvExceptionUtil;
+import org.dejavu.util.DjvLogMsg.Category;
+import org.dejavu.util.DjvSystem;
+
+/**
+ * Hashed timing wheel holding the timeouts of the connections served by a
+ * reactor. Time is divided into ticks, each slot of the wheel holds a doubly
+ * linked list of the timeouts due in the ticks mapping onto it, so scheduling
+ * and cancelling are O(1) regardless of the number of timeouts. The wheel is
+ * driven by the reactor thread, which bounds its selects to the next tick
+ * while any timeout is scheduled, and expires the due ones after each select.
+ * Scheduling and cancelling are thread-safe.
+ */
+final class AfxTimingWheel {
+
+	/**
+	 * Creates a timing wheel.
+	 *
+	 * @param tickMs The duration of a tick, i.e. the resolution of the
+	 * timeouts, in milliseconds.
+	 * @param numSlots The number of slots, rounded up to a power of two. A
+	 * timeout further than one revolution away is skipped over until its last
+	 * revolution.
+	 * @param nowMs The current time, in milliseconds from an arbitrary origin.
+	 */
+	AfxTimingWheel(long tickMs, int numSlots, long nowMs) {
+		int size = Integer.highestOneBit(Math.max(1, numSlots - 1)) << 1;
+		this.tickMs = tickMs;
+		slots = new AfxTimeout[size];
+		mask = size - 1;
+		originMs = nowMs;
+	}
+
+	/**
+	 * Schedules a timeout, rescheduling it if already scheduled.
+	 *
+	 * @param timeout The timeout to schedule.
+	 * @param delayMs The delay until expiry, in milliseconds. Rounded up to
+	 * the next tick.
+	 * @param nowMs The current time.
+	 * @return True if the wheel was empty before, i.e. the reactor may be
+	 * selecting without a time limit and needs waking up, false otherwise.
+	 */
+	synchronized boolean schedule(AfxTimeout timeout, long delayMs, long nowMs) {
+		if (-1 < timeout.slot) {
+			unlink(timeout);
+		}
+		timeout.expired = false;
+
+		boolean wasEmpty = (0 == count);
+		if (wasEmpty) {
+			// Nothing to expire in between, catch up with the time at once
+			currentTick = Math.max(currentTick, tickOf(nowMs));
+		}
+		long deadlineTick = tickOf(nowMs + delayMs + tickMs - 1);
+		timeout.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+		timeout.slot = (int) (timeout.deadlineTick & mask);
+		timeout.prev = null;
+		timeout.next = slots[timeout.slot];
+		if (null != timeout.next) {
+			timeout.next.prev = timeout;
+		}
+		slots[timeout.slot] = timeout;
+		++count;
+		return wasEmpty;
+	}
+
+	/**
+	 * Cancels a timeout. Does nothing if not scheduled.
+	 *
+	 * @param timeout The timeout to cancel.
+	 */
+	synchronized void cancel(AfxTimeout timeout) {
+		if (-1 < timeout.slot) {
+			unlink(timeout);
+		}
+		timeout.expired = false;
+	}
+
+	/**
+	 * Claims the expiry of a timeout. An expiry is delivered without holding
+	 * the lock on the wheel, the receiver must claim it to make sure the
+	 * timeout was not re-armed or cancelled in the meantime.
+	 *
+	 * @param timeout The expired timeout.
+	 * @return True if the expiry is still valid, and now claimed, false
+	 * otherwise.
+	 */
+	synchronized boolean claim(AfxTimeout timeout) {
+		boolean valid = timeout.expired;
+		timeout.expired = false;
+		return valid;
+	}
+
+	/**
+	 * Retrieves how long the reactor may select before the wheel must be
+	 * advanced again.
+	 *
+	 * @param nowMs The current time.
+	 * @return The time until the next tick in milliseconds, at least one, or
+	 * zero if no timeout is scheduled, i.e. no limit (as per Selector.select).
+	 */
+	synchronized long getSelectTimeout(long nowMs) {
+		if (0 == count) {
+			return 0;
+		}
+		return Math.max(1, originMs + ((currentTick + 1) * tickMs) - nowMs);
+	}
+
+	/**
+	 * Advances the wheel to the current time, and notifies the timeouts that
+	 * came due. Invoked by the reactor thread only.
+	 *
+	 * @param nowMs The current time.
+	 * @return The number of timeouts expired.
+	 * @throws InterruptedException User interruption
+	 */
+	int expire(long nowMs) throws InterruptedException {
+		AfxTimeout due = null;
+		int numExpired = 0;
+		synchronized (this) {
+			long targetTick = tickOf(nowMs);
+			while (currentTick < targetTick) {
+				if (0 == count) {
+					currentTick = targetTick;
+					break;
+				}
+
+				++currentTick;
+				AfxTimeout timeout = slots[(int) (currentTick & mask)];
+				while (null != timeout) {
+					AfxTimeout next = timeout.next;
+					if (timeout.deadlineTick <= currentTick) {
+						// Chain the due ones, to be notified outside the lock
+						unlink(timeout);
+						timeout.expired = true;
+						timeout.nextDue = due;
+						due = timeout;
+						++numExpired;
+					}
+					timeout = next;
+				}
+			}
+		}
+
+		while (null != due) {
+			AfxTimeout timeout = due;
+			due = timeout.nextDue;
+			timeout.nextDue = null;
+			try {
+				timeout.expired();
+			} catch (RuntimeException e) {
+				DjvSystem.logError(Category.DESIGN, "Failed to expire " + timeout + ": " + DjvExceptionUtil.simpleTrace(e));
+			}
+		}
+		return numExpired;
+	}
+
+	/**
+	 * Retrieves the number of timeouts currently scheduled.
+	 *
+	 * @return The number of timeouts.
+	 */
+	synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Removes a scheduled timeout from its slot. Must hold the lock.
+	 */
+	private void unlink(AfxTimeout timeout) {
+		if (null != timeout.prev) {
+			timeout.prev.next = timeout.next;
+		} else {
+			slots[timeout.slot] = timeout.next;
+		}
+		if (null != timeout.next) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.slot = -1;
+		--count;
+	}
+
+	/**
+	 * Converts a time into the tick it falls into.
+	 */
+	private long tickOf(long timeMs) {
+		return (timeMs - originMs) / tickMs;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AfxTimingWheel:{tickMs:" + tickMs + ", slots:" + slots.length + ", currentTick:" + currentTick + ", count:" + count + "}";
+	}
+
+	private final long tickMs;
+	private final AfxTimeout[] slots;
+	private final int mask;
+	private final long originMs;
+
+	/**
+	 * The last tick processed, and the number of timeouts scheduled, guarded
+	 * by the lock on this wheel
+	 */
+	private long currentTick;
+	private int count;
+}
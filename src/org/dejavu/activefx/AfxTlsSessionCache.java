@@ -0,0 +1,226 @@
+package org.dejavu.activefx;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Client side TLS session cache, shared by the outbound AfxConnectionTLS
+ * connections to the same servers. Engines are created with the identity of
+ * their peer, so that JSSE offers the session (or ticket) last established
+ * with that endpoint, and reconnects do an abbreviated handshake rather than
+ * a full asymmetric one. The cache keeps the last session of each endpoint,
+ * so that it may be invalidated, and counts the full and resumed handshakes
+ * per endpoint and overall.
+ */
+public class AfxTlsSessionCache {
+
+	/**
+	 * Creates a session cache.
+	 *
+	 * @param sslContext The SSL context to create the engines from, e.g. that
+	 * of a DjvSocketSslFactory. Its client session context holds the sessions
+	 * themselves.
+	 */
+	public AfxTlsSessionCache(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	/**
+	 * Specifies the maximum number of endpoints, and of sessions held by the
+	 * client session context. The least recently used endpoint is forgotten
+	 * beyond that.
+	 *
+	 * @param value The maximum, at least one.
+	 * @return This object.
+	 */
+	public synchronized AfxTlsSessionCache setCacheSize(int value) {
+		maxEndpoints = Math.max(1, value);
+		SSLSessionContext sessions = sslContext.getClientSessionContext();
+		if (null != sessions) {
+			sessions.setSessionCacheSize(maxEndpoints);
+		}
+		return this;
+	}
+
+	/**
+	 * Specifies how long a session may be resumed.
+	 *
+	 * @param seconds The timeout in seconds, zero for no limit.
+	 * @return This object.
+	 */
+	public AfxTlsSessionCache setSessionTimeout(int seconds) {
+		SSLSessionContext sessions = sslContext.getClientSessionContext();
+		if (null != sessions) {
+			sessions.setSessionTimeout(seconds);
+		}
+		return this;
+	}
+
+	/**
+	 * Retrieves the SSL context the engines are created from.
+	 *
+	 * @return The SSL context.
+	 */
+	public SSLContext getSslContext() {
+		return sslContext;
+	}
+
+	/**
+	 * Forgets the session of an endpoint, e.g. after its server restarted
+	 * with new keys. The next handshake with it is a full one.
+	 *
+	 * @param host The host name or address of the endpoint, as given to open.
+	 * @param port The port of the endpoint.
+	 */
+	public void invalidate(String host, int port) {
+		Endpoint endpoint;
+		synchronized (this) {
+			endpoint = endpoints.get(keyOf(host, port));
+		}
+		if (null != endpoint) {
+			SSLSession session = endpoint.session;
+			endpoint.session = null;
+			if (null != session) {
+				session.invalidate();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the number of handshakes completed, full or resumed.
+	 *
+	 * @return The number of handshakes.
+	 */
+	public long getHandshakeCount() {
+		return handshakes.sum();
+	}
+
+	/**
+	 * Retrieves the number of handshakes that resumed a session.
+	 *
+	 * @return The number of resumed handshakes.
+	 */
+	public long getResumedCount() {
+		return resumed.sum();
+	}
+
+	/**
+	 * Retrieves the ratio of handshakes that resumed a session.
+	 *
+	 * @return The hit rate, from 0 to 1, 0 if no handshake yet.
+	 */
+	public double getHitRate() {
+		return rateOf(handshakes.sum(), resumed.sum());
+	}
+
+	/**
+	 * Retrieves the ratio of handshakes with an endpoint that resumed a
+	 * session.
+	 *
+	 * @param host The host name or address of the endpoint, as given to open.
+	 * @param port The port of the endpoint.
+	 * @return The hit rate, from 0 to 1, 0 if no handshake yet or the endpoint
+	 * was forgotten.
+	 */
+	public double getHitRate(String host, int port) {
+		Endpoint endpoint;
+		synchronized (this) {
+			endpoint = endpoints.get(keyOf(host, port));
+		}
+		return (null == endpoint) ? 0 : rateOf(endpoint.handshakes.sum(), endpoint.resumed.sum());
+	}
+
+	/**
+	 * Creates a client engine for an endpoint.
+	 *
+	 * @param host The host name or address of the endpoint.
+	 * @param port The port of the endpoint.
+	 * @return The engine, in client mode.
+	 */
+	SSLEngine createEngine(String host, int port) {
+		SSLEngine retValue = sslContext.createSSLEngine(host, port);
+		retValue.setUseClientMode(true);
+		return retValue;
+	}
+
+	/**
+	 * Records a completed handshake with an endpoint.
+	 *
+	 * @param host The host name or address of the endpoint.
+	 * @param port The port of the endpoint.
+	 * @param session The session established.
+	 * @param startMs When the handshake started, as per
+	 * System.currentTimeMillis().
+	 * @return True if the session was resumed, false if newly established.
+	 */
+	boolean handshakeCompleted(String host, int port, SSLSession session, long startMs) {
+		String key = keyOf(host, port);
+		Endpoint endpoint;
+		synchronized (this) {
+			endpoint = endpoints.get(key);
+			if (null == endpoint) {
+				endpoint = new Endpoint();
+				endpoints.put(key, endpoint);
+			}
+		}
+
+		// A resumed session carries over the creation time of the original,
+		// whereas its identifier may change with each ticket (TLS 1.3)
+		boolean wasResumed = session.getCreationTime() < startMs;
+		endpoint.session = session;
+		endpoint.handshakes.increment();
+		handshakes.increment();
+		if (wasResumed) {
+			endpoint.resumed.increment();
+			resumed.increment();
+		}
+		return wasResumed;
+	}
+
+	private static String keyOf(String host, int port) {
+		return host + ":" + port;
+	}
+
+	private static double rateOf(long total, long hits) {
+		return (0 == total) ? 0 : ((double) hits) / total;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AfxTlsSessionCache:{endpoints:" + endpoints.size() + ", handshakes:" + handshakes.sum()
+			+ ", resumed:" + resumed.sum() + "}";
+	}
+
+	/**
+	 * Sessions and statistics of an endpoint.
+	 */
+	private static class Endpoint {
+
+		volatile SSLSession session;
+		final LongAdder handshakes = new LongAdder();
+		final LongAdder resumed = new LongAdder();
+	}
+
+	private final SSLContext sslContext;
+	private final LongAdder handshakes = new LongAdder();
+	private final LongAdder resumed = new LongAdder();
+
+	/**
+	 * The endpoints, least recently used first, guarded by the lock on this
+	 * cache
+	 */
+	private int maxEndpoints = 1024;
+	private final Map<String, Endpoint> endpoints = new LinkedHashMap<String, Endpoint>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Endpoint> eldest) {
+			return size() > maxEndpoints;
+		}
+	};
+}
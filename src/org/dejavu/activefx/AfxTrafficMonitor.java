@@ -0,0 +1,178 @@
+package org.dejavu.activefx;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on traffic counters of a connection, or of a domain. The monitor of
+ * a connection rolls its counts up into that of its domain, which rolls them
+ * up into the application-wide monitor. Counting is contention free, the
+ * reactor threads and the FSM dispatch thread record concurrently without
+ * locking, while snapshots may be taken from any thread.
+ */
+final class AfxTrafficMonitor {
+
+	/**
+	 * Creates a new monitor.
+	 *
+	 * @param parent The monitor to roll the counts up into, null if none.
+	 */
+	AfxTrafficMonitor(AfxTrafficMonitor parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Retrieves the application-wide monitor, into which those of all domains
+	 * roll up.
+	 *
+	 * @return The global monitor.
+	 */
+	static AfxTrafficMonitor getGlobal() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Takes a snapshot of all counters.
+	 *
+	 * @param pendingEvents The number of events pending in the FSM domain.
+	 * @return The snapshot, never null.
+	 */
+	AfxStatistics snapshot(int pendingEvents) {
+		return new AfxStatistics(startTimestamp, System.currentTimeMillis(), bytesIn.sum(), bytesOut.sum(),
+			messagesIn.sum(), messagesOut.sum(), partialWrites.sum(), readFailures.sum(), writeFailures.sum(),
+			openConnections.sum(), pendingEvents);
+	}
+
+	/**
+	 * Records bytes read from a channel.
+	 *
+	 * @param numBytes The number of bytes read, ignored unless positive.
+	 */
+	void bytesRead(long numBytes) {
+		if (0 < numBytes) {
+			for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+				monitor.bytesIn.add(numBytes);
+			}
+		}
+	}
+
+	/**
+	 * Records bytes written to a channel.
+	 *
+	 * @param numBytes The number of bytes written, ignored unless positive.
+	 */
+	void bytesWritten(long numBytes) {
+		if (0 < numBytes) {
+			for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+				monitor.bytesOut.add(numBytes);
+			}
+		}
+	}
+
+	/**
+	 * Records messages received.
+	 *
+	 * @param numMessages The number of messages.
+	 */
+	void messagesRead(int numMessages) {
+		for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+			monitor.messagesIn.add(numMessages);
+		}
+	}
+
+	/**
+	 * Records messages sent.
+	 *
+	 * @param numMessages The number of messages.
+	 */
+	void messagesWritten(int numMessages) {
+		for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+			monitor.messagesOut.add(numMessages);
+		}
+	}
+
+	/**
+	 * Records a write the channel only partly took.
+	 */
+	void partialWrite() {
+		for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+			monitor.partialWrites.increment();
+		}
+	}
+
+	/**
+	 * Records a failed read.
+	 */
+	void readFailed() {
+		for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+			monitor.readFailures.increment();
+		}
+	}
+
+	/**
+	 * Records failed writes.
+	 *
+	 * @param numWrites The number of writes.
+	 */
+	void writesFailed(int numWrites) {
+		for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+			monitor.writeFailures.add(numWrites);
+		}
+	}
+
+	/**
+	 * Records the connection being open. Does nothing if already recorded.
+	 */
+	void opened() {
+		if (open.compareAndSet(false, true)) {
+			for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+				monitor.openConnections.increment();
+			}
+		}
+	}
+
+	/**
+	 * Records the connection being closed. Does nothing unless recorded as
+	 * open.
+	 */
+	void closed() {
+		if (open.compareAndSet(true, false)) {
+			for (AfxTrafficMonitor monitor = this; null != monitor; monitor = monitor.parent) {
+				monitor.openConnections.decrement();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the number of messages sent so far.
+	 *
+	 * @return The number of messages out.
+	 */
+	long getMessagesOut() {
+		return messagesOut.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "AfxTrafficMonitor:{bytesIn:" + bytesIn.sum() + ", bytesOut:" + bytesOut.sum() + ", messagesIn:" + messagesIn.sum()
+			+ ", messagesOut:" + messagesOut.sum() + ", openConnections:" + openConnections.sum() + '}';
+	}
+
+	private static final AfxTrafficMonitor GLOBAL = new AfxTrafficMonitor(null);
+
+	private final AfxTrafficMonitor parent;
+	private final long startTimestamp = System.currentTimeMillis();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder messagesIn = new LongAdder();
+	private final LongAdder messagesOut = new LongAdder();
+	private final LongAdder partialWrites = new LongAdder();
+	private final LongAdder readFailures = new LongAdder();
+	private final LongAdder writeFailures = new LongAdder();
+	private final LongAdder openConnections = new LongAdder();
+
+	/**
+	 * Whether the connection is recorded as open, unused for a domain
+	 */
+	private final AtomicBoolean open = new AtomicBoolean();
+}
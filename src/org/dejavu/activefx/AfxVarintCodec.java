@@ -0,0 +1,86 @@
+package org.dejavu.activefx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames prefixed with a variable-length length field, encoded as a base 128
+ * varint (seven bits per byte, least significant group first, high bit set on
+ * all but the last byte) as used by Protocol Buffers.
+ */
+public class AfxVarintCodec implements AfxFrameDecoder, AfxFrameEncoder {
+
+	/**
+	 * Creates a new codec.
+	 *
+	 * @param maxFrameLength The maximum length of the frame content, larger
+	 * frames are rejected.
+	 */
+	public AfxVarintCodec(int maxFrameLength) {
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	@Override
+	public ByteBuffer decode(ByteBuffer in) throws AfxException {
+		int start = in.position();
+		int limit = in.limit();
+		long length = 0;
+		int fieldLength = 0;
+		while (true) {
+			if (start + fieldLength >= limit) {
+				// Length field not all in yet
+				return null;
+			}
+			int b = in.get(start + fieldLength);
+			length |= (long) (b & 0x7f) << (7 * fieldLength);
+			++fieldLength;
+			if (0 == (b & 0x80)) {
+				break;
+			}
+			if (fieldLength >= MAX_FIELD_LENGTH) {
+				throw new AfxException("Malformed varint length field");
+			}
+		}
+
+		if (length > maxFrameLength) {
+			throw new AfxException("Frame length " + length + " exceeds " + maxFrameLength);
+		}
+		if (in.remaining() < fieldLength + length) {
+			return null;
+		}
+
+		in.position(start + fieldLength);
+		ByteBuffer frame = in.slice();
+		frame.limit((int) length);
+		in.position(start + fieldLength + (int) length);
+		return frame;
+	}
+
+	@Override
+	public ByteBuffer[] encode(ByteBuffer frame) throws AfxException {
+		int length = frame.remaining();
+		if (length > maxFrameLength) {
+			throw new AfxException("Frame length " + length + " exceeds " + maxFrameLength);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(MAX_FIELD_LENGTH);
+		while (length > 0x7f) {
+			header.put((byte) ((length & 0x7f) | 0x80));
+			length >>>= 7;
+		}
+		header.put((byte) length);
+		header.flip();
+		return new ByteBuffer[]{header, frame};
+	}
+
+	@Override
+	public String toString() {
+		return "{maxFrameLength:" + maxFrameLength + "}";
+	}
+
+	/**
+	 * A 32-bit length takes at most 5 groups of 7 bits
+	 */
+	private static final int MAX_FIELD_LENGTH = 5;
+
+	private final int maxFrameLength;
+}
@@ -198,6 +198,16 @@ public abstract class FsmDomain implements Runnable {
 		return false;
 	}
 
+	/**
+	 * Retrieves the number of events queued to be processed by the dispatch
+	 * thread.
+	 *
+	 * @return The depth of the event queue.
+	 */
+	public int getNumPendingEvents() {
+		return eventQueue.getNumPendingMsgs();
+	}
+
 	/**
 	 * Returns the initial state for FSM context in this domain.
 	 *
@@ -230,7 +240,7 @@ public abstract class FsmDomain implements Runnable {
 				while (running) {
 					FsmEvent event = (FsmEvent) eventQueue.receiveMsg();
 					if (null != event) {
-						handleEvent(event);
+						handleQueuedEvent(event);
 					}
 				}
 			} catch (RuntimeException e) {
@@ -337,6 +347,20 @@ public abstract class FsmDomain implements Runnable {
 		return false;
 	}
 
+	/**
+	 * Delivers an event taken from the event queue by the dispatch thread.
+	 * Sub-classes may override this to track or serialize queued events, the
+	 * default simply delivers the event via handleEvent.
+	 *
+	 * @param event The event to be delivered.
+	 * @return True if the event had been successfully executed with the target
+	 * FSM context, false otherwise.
+	 * @throws java.lang.InterruptedException User interruption
+	 */
+	protected boolean handleQueuedEvent(FsmEvent event) throws InterruptedException {
+		return handleEvent(event);
+	}
+
 	/**
 	 * @associates FsmState
 	 * @label State map